@@ -3,19 +3,23 @@ package cn.hamm.airpower.ai;
 import cn.hamm.airpower.ai.model.AiRequest;
 import cn.hamm.airpower.ai.model.AiResponse;
 import cn.hamm.airpower.ai.model.AiStream;
-import cn.hamm.airpower.core.HttpUtil;
 import cn.hamm.airpower.core.Json;
 import cn.hamm.airpower.core.constant.HttpConstant;
 import cn.hamm.airpower.core.exception.ServiceException;
 import cn.hamm.airpower.exception.Errors;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.BufferedReader;
@@ -27,7 +31,10 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import static cn.hamm.airpower.core.constant.HttpConstant.ContentType.APPLICATION_JSON_UTF8;
@@ -45,7 +52,7 @@ import static cn.hamm.airpower.exception.Errors.AI_ERROR;
 @Configuration
 @ConfigurationProperties("airpower.ai")
 @Slf4j
-public class Ai {
+public class Ai implements DisposableBean {
     /**
      * 模型返回数据开始标识
      */
@@ -81,6 +88,76 @@ public class Ai {
      */
     private Boolean enableThinking = false;
 
+    /**
+     * 连接超时时间（毫秒）
+     */
+    private long connectTimeout = 10000;
+
+    /**
+     * 请求超时时间（毫秒），流式请求为收到响应头的超时时间
+     */
+    private long readTimeout = 120000;
+
+    /**
+     * 最多同时进行的请求数，流式请求在输出结束前一直占用
+     */
+    private int maxConcurrentRequests = 64;
+
+    /**
+     * 请求数达到上限时最多等待的时间（毫秒），超时后拒绝请求
+     *
+     * @apiNote 非阻塞的流式请求不等待，达到上限时直接拒绝
+     */
+    private long acquireTimeout = 10000;
+
+    /**
+     * HttpClient 的工作线程数，{@code 0} 为处理器数量的两倍
+     */
+    private int httpThreads = 0;
+
+    /**
+     * 流式输出累积多少个字符后发送一次
+     */
+    private int streamFlushChars = 32;
+
+    /**
+     * 流式输出距离上次发送多少毫秒后发送一次
+     */
+    private long streamFlushMillis = 50;
+
+    /**
+     * 流式输出的线程数，{@code 0} 为处理器数量
+     */
+    private int streamThreads = 0;
+
+    /**
+     * 共享的 HttpClient
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile HttpClient httpClient;
+
+    /**
+     * HttpClient 的工作线程池
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ExecutorService httpExecutor;
+
+    /**
+     * 流式输出线程池
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ScheduledExecutorService streamExecutor;
+
+    /**
+     * 同时进行的请求许可
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Semaphore requestSemaphore;
+
     /**
      * 发送同步请求
      *
@@ -91,11 +168,22 @@ public class Ai {
         AI_ERROR.whenNull(request, "请求参数错误，请检查请求参数");
         request.setStream(false);
         setRequestParam(request);
-        String json = Json.toString(request);
-        HttpResponse<String> httpResponse = HttpUtil.create()
-                .setUrl(url)
-                .addHeader(AUTHORIZATION, getBearerToken())
-                .post(json);
+        HttpResponse<String> httpResponse;
+        acquire();
+        try {
+            httpResponse = getHttpClient().send(
+                    getHttpRequest(request),
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)
+            );
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            throw new ServiceException(AI_ERROR, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(AI_ERROR, e.getMessage());
+        } finally {
+            release();
+        }
         AI_ERROR.whenNotEquals(httpResponse.statusCode(), Json.SUCCESS_CODE, "请求失败，AI模型服务异常");
         String response = httpResponse.body();
         try {
@@ -116,7 +204,7 @@ public class Ai {
             HttpResponse<InputStream> httpResponse = getInputStreamHttpResponse(request);
             try (outputStream; outputStream) {
                 InputStream inputStream = httpResponse.body();
-                try (var reader = new BufferedReader(new InputStreamReader(inputStream))) {
+                try (var reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
                     String line;
                     while ((line = reader.readLine()) != null) {
                         String apply = func.apply(line);
@@ -127,6 +215,8 @@ public class Ai {
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
                 throw new ServiceException(Errors.AI_ERROR, e.getMessage());
+            } finally {
+                release();
             }
         };
         return ResponseEntity.ok()
@@ -166,6 +256,51 @@ public class Ai {
         });
     }
 
+    /**
+     * 发送非阻塞的流式请求
+     *
+     * @param request 模型请求参数
+     * @return SSE 事件发送器，每个事件为合并后的差分消息内容，最后一个事件为 {@code [DONE]}
+     * @apiNote 请求和响应都异步处理，不占用 Servlet 线程，响应按 UTF-8 解码，只流式解析差分消息的内容，
+     * 小片段合并后在流式输出线程池上发送，不阻塞 HttpClient 的工作线程
+     */
+    public final @NotNull SseEmitter requestStreamSse(@NotNull AiRequest request) {
+        AI_ERROR.whenNull(request, "请求参数错误，请检查请求参数");
+        request.setStream(true);
+        setRequestParam(request);
+        // 请求数达到上限时直接拒绝，不在 Servlet 线程上等待许可
+        acquire(0);
+        SseEmitter emitter = new SseEmitter(0L);
+        AiStreamSubscriber subscriber = new AiStreamSubscriber(
+                emitter, Math.max(streamFlushChars, 1), streamFlushMillis, this::release, getStreamExecutor()
+        );
+        emitter.onCompletion(subscriber::cancel);
+        emitter.onTimeout(subscriber::cancel);
+        emitter.onError(throwable -> subscriber.cancel());
+        HttpResponse.BodyHandler<Void> bodyHandler = responseInfo -> {
+            if (responseInfo.statusCode() != HttpConstant.Status.OK) {
+                return HttpResponse.BodySubscribers.discarding();
+            }
+            return HttpResponse.BodySubscribers.fromLineSubscriber(
+                    subscriber, ignored -> null, StandardCharsets.UTF_8, null
+            );
+        };
+        try {
+            getHttpClient().sendAsync(getHttpRequest(request), bodyHandler).whenComplete((response, throwable) -> {
+                if (Objects.nonNull(throwable)) {
+                    subscriber.onError(throwable);
+                    return;
+                }
+                if (response.statusCode() != HttpConstant.Status.OK) {
+                    subscriber.onError(new ServiceException(AI_ERROR, "请求失败，AI模型服务异常"));
+                }
+            });
+        } catch (Exception e) {
+            subscriber.onError(e);
+        }
+        return emitter;
+    }
+
     /**
      * 获取输入流 HTTP 响应
      *
@@ -173,19 +308,23 @@ public class Ai {
      * @return 输入流 HTTP 响应
      */
     private @NotNull HttpResponse<InputStream> getInputStreamHttpResponse(@NotNull AiRequest request) {
+        acquire();
         try {
             AI_ERROR.whenNull(request, "请求参数错误，请检查请求参数");
             request.setStream(true);
             setRequestParam(request);
-            HttpClient httpClient = getHttpClient();
-            HttpRequest httpRequest = getHttpRequest(request);
-            HttpResponse<InputStream> httpResponse = httpClient.send(
-                    httpRequest,
+            HttpResponse<InputStream> httpResponse = getHttpClient().send(
+                    getHttpRequest(request),
                     HttpResponse.BodyHandlers.ofInputStream()
             );
+            if (httpResponse.statusCode() != HttpConstant.Status.OK) {
+                httpResponse.body().close();
+            }
             AI_ERROR.whenNotEquals(httpResponse.statusCode(), HttpConstant.Status.OK, "请求失败，AI模型服务异常");
             return httpResponse;
         } catch (Exception e) {
+            // 拿到响应后由调用方在输出结束时释放许可
+            release();
             log.error(e.getMessage(), e);
             throw new ServiceException(AI_ERROR, e.getMessage());
         }
@@ -207,10 +346,98 @@ public class Ai {
      * 获取 HttpClient
      *
      * @return HttpClient
+     * @apiNote 所有请求共享一个支持 HTTP/2 的客户端，复用连接和 TLS 会话
      */
     private HttpClient getHttpClient() {
-        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder();
-        return httpClientBuilder.build();
+        HttpClient client = httpClient;
+        if (Objects.nonNull(client)) {
+            return client;
+        }
+        synchronized (this) {
+            if (Objects.isNull(httpClient)) {
+                int threads = httpThreads > 0 ? httpThreads : Runtime.getRuntime().availableProcessors() * 2;
+                AtomicInteger index = new AtomicInteger();
+                httpExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "ai-http-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                httpClient = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_2)
+                        .connectTimeout(Duration.ofMillis(connectTimeout))
+                        .followRedirects(HttpClient.Redirect.NORMAL)
+                        .executor(httpExecutor)
+                        .build();
+            }
+            return httpClient;
+        }
+    }
+
+    /**
+     * 获取流式输出线程池
+     *
+     * @return 线程池
+     * @apiNote 所有流式请求共享固定数量的线程，向客户端发送和定时发送都在这里执行
+     */
+    private ScheduledExecutorService getStreamExecutor() {
+        ScheduledExecutorService executor = streamExecutor;
+        if (Objects.nonNull(executor)) {
+            return executor;
+        }
+        synchronized (this) {
+            if (Objects.isNull(streamExecutor)) {
+                int threads = streamThreads > 0 ? streamThreads : Runtime.getRuntime().availableProcessors();
+                AtomicInteger index = new AtomicInteger();
+                ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "ai-stream-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                // 结束的流会取消定时发送，及时从队列中移除
+                pool.setRemoveOnCancelPolicy(true);
+                streamExecutor = pool;
+            }
+            return streamExecutor;
+        }
+    }
+
+    /**
+     * 获取一个请求许可
+     */
+    private void acquire() {
+        acquire(acquireTimeout);
+    }
+
+    /**
+     * 获取一个请求许可
+     *
+     * @param timeout 最多等待的时间（毫秒），{@code 0} 为不等待
+     */
+    private void acquire(long timeout) {
+        Semaphore semaphore = requestSemaphore;
+        if (Objects.isNull(semaphore)) {
+            synchronized (this) {
+                if (Objects.isNull(requestSemaphore)) {
+                    requestSemaphore = new Semaphore(Math.max(maxConcurrentRequests, 1));
+                }
+                semaphore = requestSemaphore;
+            }
+        }
+        try {
+            if (!semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new ServiceException(AI_ERROR, "AI 请求过多，请稍后再试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(AI_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 释放一个请求许可
+     */
+    private void release() {
+        requestSemaphore.release();
     }
 
     /**
@@ -220,7 +447,8 @@ public class Ai {
      */
     private HttpRequest getHttpRequest(AiRequest request) {
         HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                .uri(URI.create(url));
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(readTimeout));
         HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofString(Json.toString(request));
         requestBuilder.POST(bodyPublisher);
         requestBuilder.setHeader(AUTHORIZATION, getBearerToken());
@@ -237,4 +465,14 @@ public class Ai {
     private @NotNull String getBearerToken() {
         return BEARER + " " + key;
     }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(httpExecutor)) {
+            httpExecutor.shutdown();
+        }
+        if (Objects.nonNull(streamExecutor)) {
+            streamExecutor.shutdown();
+        }
+    }
 }
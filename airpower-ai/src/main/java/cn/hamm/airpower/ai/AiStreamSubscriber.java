@@ -0,0 +1,359 @@
+package cn.hamm.airpower.ai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <h1>AI 流式响应订阅</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 逐行接收模型的 SSE 响应，只解析出差分消息的内容，累积到一定长度或时间后合并为一个事件发送给客户端。
+ * 解析和发送在共享的流式输出线程池上按顺序执行，不占用 HttpClient 的工作线程；
+ * 每次发送完一行才请求下一行，客户端写得慢时上游也随之变慢；上游停顿时由定时任务发送已累积的内容
+ */
+@Slf4j
+class AiStreamSubscriber implements Flow.Subscriber<String> {
+    /**
+     * 模型返回数据开始标识
+     */
+    private static final String FLAG_STREAM_DATA = "data:";
+
+    /**
+     * 模型返回数据结束标识
+     */
+    private static final String FLAG_STREAM_DONE = "[DONE]";
+
+    /**
+     * 差分消息字段
+     */
+    private static final String FIELD_DELTA = "delta";
+
+    /**
+     * 消息内容字段
+     */
+    private static final String FIELD_CONTENT = "content";
+
+    /**
+     * JSON 工厂
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 客户端事件发送器
+     */
+    private final SseEmitter emitter;
+
+    /**
+     * 合并发送的字符数
+     */
+    private final int flushChars;
+
+    /**
+     * 合并发送的毫秒数
+     */
+    private final long flushMillis;
+
+    /**
+     * 结束时的回调，只执行一次
+     */
+    private final Runnable onFinish;
+
+    /**
+     * 流式输出线程池
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * 待按顺序执行的任务
+     */
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已提交执行任务
+     */
+    private final AtomicBoolean executing = new AtomicBoolean(false);
+
+    /**
+     * 是否已结束
+     */
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    /**
+     * 待发送的内容
+     */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * 上游订阅
+     */
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * 定时发送任务
+     */
+    private volatile ScheduledFuture<?> flushFuture;
+
+    /**
+     * 上次发送的时间
+     */
+    private long lastFlushTime = System.currentTimeMillis();
+
+    /**
+     * 创建订阅
+     *
+     * @param emitter     客户端事件发送器
+     * @param flushChars  合并发送的字符数
+     * @param flushMillis 合并发送的毫秒数
+     * @param onFinish    结束时的回调
+     * @param executor    流式输出线程池
+     */
+    AiStreamSubscriber(@NotNull SseEmitter emitter, int flushChars, long flushMillis, @NotNull Runnable onFinish,
+                       @NotNull ScheduledExecutorService executor) {
+        this.emitter = emitter;
+        this.flushChars = flushChars;
+        this.flushMillis = flushMillis;
+        this.onFinish = onFinish;
+        this.executor = executor;
+    }
+
+    /**
+     * 解析差分消息的内容
+     *
+     * @param json 模型返回的一条数据
+     * @return 第一个选择的差分消息内容，没有时返回 {@code null}
+     * @throws IOException 数据不是合法的 JSON 时抛出
+     * @apiNote 流式读取到内容字段后立即返回，不构建完整的响应对象
+     */
+    static @Nullable String parseDelta(@NotNull String json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            JsonToken token;
+            while (Objects.nonNull(token = parser.nextToken())) {
+                if (token != JsonToken.VALUE_STRING || !FIELD_CONTENT.equals(parser.currentName())) {
+                    continue;
+                }
+                JsonStreamContext parent = parser.getParsingContext().getParent();
+                if (Objects.nonNull(parent) && FIELD_DELTA.equals(parent.getCurrentName())) {
+                    return parser.getText();
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void onSubscribe(@NotNull Flow.Subscription subscription) {
+        this.subscription = subscription;
+        // 客户端在订阅前已断开时，cancel 取不到订阅，在这里取消
+        if (finished.get()) {
+            subscription.cancel();
+            return;
+        }
+        if (flushMillis > 0) {
+            try {
+                flushFuture = executor.scheduleWithFixedDelay(
+                        () -> execute(this::flushIfDue), flushMillis, flushMillis, TimeUnit.MILLISECONDS
+                );
+                if (finished.get()) {
+                    flushFuture.cancel(false);
+                }
+            } catch (RejectedExecutionException exception) {
+                cancel();
+                return;
+            }
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(@NotNull String line) {
+        execute(() -> {
+            if (finished.get()) {
+                return;
+            }
+            try {
+                handleLine(line.trim());
+            } catch (Exception exception) {
+                fail(exception);
+                return;
+            }
+            subscription.request(1);
+        });
+    }
+
+    @Override
+    public void onError(@NotNull Throwable throwable) {
+        execute(() -> {
+            if (!finish()) {
+                return;
+            }
+            log.error("AI 流式响应中断: {}", throwable.getMessage());
+            emitter.completeWithError(throwable);
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        execute(() -> {
+            if (!finish()) {
+                return;
+            }
+            try {
+                flush();
+                emitter.complete();
+            } catch (IOException exception) {
+                emitter.completeWithError(exception);
+            }
+        });
+    }
+
+    /**
+     * 取消上游订阅
+     *
+     * @apiNote 客户端断开时调用，释放上游连接
+     */
+    void cancel() {
+        if (finish() && Objects.nonNull(subscription)) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * 按提交顺序在流式输出线程池上执行任务
+     *
+     * @param task 任务
+     * @apiNote 同一个订阅的任务不会并发执行，线程池关闭时取消订阅
+     */
+    private void execute(@NotNull Runnable task) {
+        taskQueue.add(task);
+        schedule();
+    }
+
+    /**
+     * 没有在执行时提交执行任务
+     */
+    private void schedule() {
+        if (!executing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::runTasks);
+        } catch (RejectedExecutionException exception) {
+            taskQueue.clear();
+            executing.set(false);
+            cancel();
+        }
+    }
+
+    /**
+     * 执行已提交的任务
+     */
+    private void runTasks() {
+        Runnable task;
+        while (Objects.nonNull(task = taskQueue.poll())) {
+            try {
+                task.run();
+            } catch (Exception exception) {
+                log.error("处理 AI 流式响应失败: {}", exception.getMessage());
+            }
+        }
+        executing.set(false);
+        // 取完任务到释放标记之间提交的任务还没有被执行
+        if (!taskQueue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * 上游停顿时发送已累积的内容
+     */
+    private void flushIfDue() {
+        if (finished.get() || System.currentTimeMillis() - lastFlushTime < flushMillis) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException exception) {
+            fail(exception);
+        }
+    }
+
+    /**
+     * 处理失败时结束
+     *
+     * @param exception 异常
+     */
+    private void fail(@NotNull Exception exception) {
+        log.error("处理 AI 流式响应失败: {}", exception.getMessage());
+        cancel();
+        emitter.completeWithError(exception);
+    }
+
+    /**
+     * 处理一行数据
+     *
+     * @param line 去掉首尾空白的一行
+     * @throws IOException 发送失败时抛出
+     */
+    private void handleLine(@NotNull String line) throws IOException {
+        if (!line.startsWith(FLAG_STREAM_DATA)) {
+            return;
+        }
+        String data = line.substring(FLAG_STREAM_DATA.length()).trim();
+        if (FLAG_STREAM_DONE.equals(data)) {
+            flush();
+            emitter.send(SseEmitter.event().data(FLAG_STREAM_DONE));
+            return;
+        }
+        String delta = parseDelta(data);
+        if (Objects.isNull(delta) || delta.isEmpty()) {
+            return;
+        }
+        buffer.append(delta);
+        if (buffer.length() >= flushChars || System.currentTimeMillis() - lastFlushTime >= flushMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * 发送累积的内容
+     *
+     * @throws IOException 发送失败时抛出
+     */
+    private void flush() throws IOException {
+        lastFlushTime = System.currentTimeMillis();
+        if (buffer.isEmpty()) {
+            return;
+        }
+        String content = buffer.toString();
+        buffer.setLength(0);
+        emitter.send(SseEmitter.event().data(content));
+    }
+
+    /**
+     * 标记结束
+     *
+     * @return 是否为第一次结束
+     */
+    private boolean finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        if (Objects.nonNull(flushFuture)) {
+            flushFuture.cancel(false);
+        }
+        onFinish.run();
+        return true;
+    }
+}
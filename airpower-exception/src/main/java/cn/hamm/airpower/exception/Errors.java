@@ -55,6 +55,9 @@ public enum Errors implements IException<ServiceException>, IDictionary {
 
     REQUEST_CONTENT_TYPE_UNSUPPORTED(415, "不支持的数据类型"),
 
+    // 429 请求频率代码
+    REQUEST_TOO_FREQUENT(429, "请求过于频繁，请稍后再试"),
+
     // 500 服务基础代码
     SERVICE_ERROR(500, "服务出了一点点异常，请稍后再试或联系技术支持"),
     DECRYPT_DATA_FAIL(5001, "数据解密失败，请确认AppKey/AppSecret/加密方式是否正确"),
@@ -34,4 +34,62 @@ public class MqttConfig {
      * 端口
      */
     private String port = "1883";
+
+    /**
+     * 发布客户端的数量
+     *
+     * @apiNote 发布客户端是长连接，断线自动重连，多个客户端轮流发布
+     */
+    private int publisherPoolSize = 1;
+
+    /**
+     * 发布消息的 QoS
+     */
+    private int publishQos = 0;
+
+    /**
+     * 每个发布客户端最多未确认的消息数，只对 QoS 1 和 2 生效
+     */
+    private int maxInflight = 1000;
+
+    /**
+     * 发布客户端连接的超时时间（毫秒）
+     */
+    private long publisherConnectTimeout = 30000;
+
+    /**
+     * 同步发布等待消息写出（QoS 0）或 Broker 确认（QoS 1、2）的超时时间（毫秒）
+     */
+    private long publishTimeout = 10000;
+
+    /**
+     * 发布客户端的 ID，为空时随机生成
+     *
+     * @apiNote 配置后多个发布客户端依次加上序号，进程重启后可以从本地持久化中恢复未发送的消息，集群中每个节点需要不同的 ID
+     */
+    private String publisherClientId = "";
+
+    /**
+     * 发布客户端断线时最多缓存的消息数，超出后异步发布失败
+     */
+    private int publishBufferSize = 5000;
+
+    /**
+     * 发布客户端的持久化目录，断线期间缓存的消息和未确认的消息写入该目录
+     */
+    private String persistenceDirectory = System.getProperty("java.io.tmpdir") + "/airpower-mqtt";
+
+    /**
+     * 处理 {@link MqttListener} 消息的线程数，{@code 0} 为处理器数量
+     *
+     * @apiNote 同一个主题的消息总是由同一个线程按顺序处理
+     */
+    private int listenerThreads = 0;
+
+    /**
+     * 每个处理线程最多排队的 QoS 0 消息数，排满后丢弃新的 QoS 0 消息
+     *
+     * @apiNote QoS 1、2 的消息处理完才向 Broker 确认，排队数量由 Broker 的未确认窗口限制
+     */
+    private int listenerQueueCapacity = 1000;
 }
@@ -3,11 +3,19 @@ package cn.hamm.airpower.mqtt;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * <h1>MQTT 助手类</h1>
@@ -16,10 +24,45 @@ import java.util.UUID;
  */
 @Configuration
 @Slf4j
-public class MqttHelper {
+public class MqttHelper implements DisposableBean {
+    /**
+     * 发布客户端 ID 前缀
+     */
+    private static final String PUBLISHER_ID_PREFIX = "airpower-publisher-";
+
+    /**
+     * 首次连接失败后的重试间隔（毫秒）
+     */
+    private static final long CONNECT_RETRY_MILLIS = 5000;
+
+    /**
+     * 下一个发布客户端的序号
+     */
+    private final AtomicInteger publisherIndex = new AtomicInteger();
+
+    /**
+     * 首次连接成功之前的消息
+     */
+    private final Queue<Pending> pendingQueue = new ArrayDeque<>();
+
     @Autowired
     private MqttConfig mqttConfig;
 
+    /**
+     * 发布客户端池
+     */
+    private volatile List<MqttAsyncClient> publishers;
+
+    /**
+     * 连接成功过的发布客户端，断线期间由客户端的持久化缓存保存消息
+     */
+    private volatile MqttAsyncClient[] readyPublishers = new MqttAsyncClient[0];
+
+    /**
+     * 连接重试线程
+     */
+    private volatile ScheduledExecutorService connectScheduler;
+
     /**
      * 创建 MQTT 客户端
      *
@@ -39,7 +82,22 @@ public class MqttHelper {
      */
     public @NotNull MqttClient createClient(String id) throws MqttException {
         return new MqttClient(
-                "tcp://" + mqttConfig.getHost() + ":" + mqttConfig.getPort(),
+                getServerUri(),
+                id,
+                new MemoryPersistence()
+        );
+    }
+
+    /**
+     * 创建异步 MQTT 客户端
+     *
+     * @param id 客户端 {@code ID}
+     * @return 客户端
+     * @throws MqttException 异常
+     */
+    public @NotNull MqttAsyncClient createAsyncClient(String id) throws MqttException {
+        return new MqttAsyncClient(
+                getServerUri(),
                 id,
                 new MemoryPersistence()
         );
@@ -65,19 +123,316 @@ public class MqttHelper {
      *
      * @param topic   主题
      * @param message 消息内容
+     * @throws MqttException 发送失败、缓存已满或超过 {@link MqttConfig#getPublishTimeout()} 仍未完成时抛出
+     * @apiNote 使用长连接的发布客户端，阻塞到消息写出（QoS 0）或 Broker 确认（QoS 1、2）；
+     * 超时抛出异常时消息可能仍在缓存中，稍后仍会发出。不需要等待结果时使用 {@link #publishAsync(String, String)}
      */
     public void publish(@NotNull String topic, @NotNull String message) throws MqttException {
         log.info("MQTT 发送消息：{} {}", topic, message);
-        try (MqttClient client = createClient()) {
-            client.connect(createOption());
-            MqttMessage mqttMessage = new MqttMessage();
-            mqttMessage.setPayload(message.getBytes());
-            mqttMessage.setQos(0);
-            MqttTopic mqttTopic = client.getTopic(topic);
-            MqttDeliveryToken token;
-            token = mqttTopic.publish(mqttMessage);
-            token.waitForCompletion();
-            client.disconnect();
+        MqttMessage mqttMessage = new MqttMessage(message.getBytes(UTF_8));
+        mqttMessage.setQos(mqttConfig.getPublishQos());
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        send(topic, mqttMessage, future);
+        try {
+            future.get(mqttConfig.getPublishTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof MqttException mqttException) {
+                throw mqttException;
+            }
+            throw new MqttException(exception.getCause());
+        } catch (TimeoutException exception) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(exception);
+        }
+    }
+
+    /**
+     * 异步发送消息
+     *
+     * @param topic   主题
+     * @param message 消息内容
+     * @return 发送结果，消息写出（QoS 0）或 Broker 确认（QoS 1、2）后完成
+     * @apiNote 不会抛出异常，也不会阻塞调用线程；发布客户端在后台连接，
+     * 首次连接成功之前的消息缓存在内存中，连接后按顺序交给客户端；之后 Broker 断线期间消息缓存到本地持久化目录，
+     * 重连后按顺序发出，缓存已满时返回失败的结果
+     */
+    public @NotNull CompletableFuture<Void> publishAsync(@NotNull String topic, @NotNull String message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        MqttMessage mqttMessage = new MqttMessage(message.getBytes(UTF_8));
+        mqttMessage.setQos(mqttConfig.getPublishQos());
+        try {
+            send(topic, mqttMessage, future);
+        } catch (MqttException exception) {
+            log.warn("MQTT 异步发送消息失败：{} {}", topic, exception.getMessage());
+            future.completeExceptionally(exception);
+        }
+        return future;
+    }
+
+    /**
+     * 发送消息
+     *
+     * @param topic       主题
+     * @param mqttMessage 消息
+     * @param future      发送结果，不需要时为 {@code null}
+     * @throws MqttException 未确认的消息或缓存的消息超过上限时抛出
+     * @apiNote 只在连接成功过的发布客户端之间轮流发送，这些客户端已连接或断线重连中，断线时消息进入客户端的持久化缓存；
+     * 还没有客户端连接成功过时放入内存缓存，由首个连接成功的客户端发出
+     */
+    private void send(@NotNull String topic, @NotNull MqttMessage mqttMessage, @Nullable CompletableFuture<Void> future)
+            throws MqttException {
+        getPublishers();
+        MqttAsyncClient[] clients = readyPublishers;
+        if (clients.length == 0) {
+            synchronized (pendingQueue) {
+                clients = readyPublishers;
+                if (clients.length == 0) {
+                    if (pendingQueue.size() >= Math.max(mqttConfig.getPublishBufferSize(), 1)) {
+                        throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+                    }
+                    pendingQueue.add(new Pending(topic, mqttMessage, future));
+                    return;
+                }
+            }
+        }
+        MqttAsyncClient client = clients[Math.floorMod(publisherIndex.getAndIncrement(), clients.length)];
+        if (Objects.isNull(future)) {
+            client.publish(topic, mqttMessage);
+            return;
+        }
+        client.publish(topic, mqttMessage, null, new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                future.complete(null);
+            }
+
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                future.completeExceptionally(exception);
+            }
+        });
+    }
+
+    /**
+     * 获取发布客户端池
+     *
+     * @return 发布客户端列表
+     * @throws MqttException 创建客户端失败时抛出
+     * @apiNote 首次发布时创建客户端并在后台连接，不等待连接完成
+     */
+    private @NotNull List<MqttAsyncClient> getPublishers() throws MqttException {
+        List<MqttAsyncClient> clients = publishers;
+        if (Objects.nonNull(clients)) {
+            return clients;
+        }
+        synchronized (this) {
+            if (Objects.isNull(publishers)) {
+                publishers = createPublishers();
+            }
+            return publishers;
         }
     }
+
+    /**
+     * 创建发布客户端池并开始连接
+     *
+     * @return 发布客户端列表
+     * @throws MqttException 创建失败时抛出，已创建的客户端会被关闭
+     */
+    private @NotNull List<MqttAsyncClient> createPublishers() throws MqttException {
+        int size = Math.max(mqttConfig.getPublisherPoolSize(), 1);
+        List<MqttAsyncClient> clients = new ArrayList<>(size);
+        boolean fixedId = StringUtils.hasText(mqttConfig.getPublisherClientId());
+        DisconnectedBufferOptions bufferOptions = new DisconnectedBufferOptions();
+        bufferOptions.setBufferEnabled(true);
+        bufferOptions.setBufferSize(Math.max(mqttConfig.getPublishBufferSize(), 1));
+        bufferOptions.setPersistBuffer(true);
+        bufferOptions.setDeleteOldestMessages(false);
+        try {
+            for (int i = 0; i < size; i++) {
+                MqttAsyncClient client = new MqttAsyncClient(
+                        getServerUri(),
+                        fixedId ? mqttConfig.getPublisherClientId() + "-" + i : PUBLISHER_ID_PREFIX + UUID.randomUUID(),
+                        new MqttDefaultFilePersistence(mqttConfig.getPersistenceDirectory())
+                );
+                clients.add(client);
+                client.setBufferOpts(bufferOptions);
+            }
+        } catch (MqttException exception) {
+            closePublishers(clients);
+            throw exception;
+        }
+        connectScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mqtt-publisher-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clients.forEach(this::connectPublisher);
+        return clients;
+    }
+
+    /**
+     * 在后台连接发布客户端
+     *
+     * @param client 发布客户端
+     * @apiNote 首次连接失败时定时重试，连接成功后由客户端自动重连，断线期间的消息进入客户端的持久化缓存
+     */
+    private void connectPublisher(@NotNull MqttAsyncClient client) {
+        if (connectScheduler.isShutdown()) {
+            return;
+        }
+        MqttConnectOptions options = createOption();
+        // 固定 ID 时保留会话，重启后继续投递未确认的消息；随机 ID 不保留，避免 Broker 堆积无主会话
+        options.setCleanSession(!StringUtils.hasText(mqttConfig.getPublisherClientId()));
+        options.setAutomaticReconnect(true);
+        options.setMaxInflight(Math.max(mqttConfig.getMaxInflight(), 1));
+        options.setConnectionTimeout((int) Math.max(mqttConfig.getPublisherConnectTimeout() / 1000, 1));
+        IMqttActionListener listener = new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                log.info("MQTT 发布客户端已连接：{}", client.getClientId());
+                markReady(client);
+            }
+
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, @NotNull Throwable exception) {
+                log.error("MQTT 发布客户端连接失败，{} 毫秒后重试: {}", CONNECT_RETRY_MILLIS, exception.getMessage());
+                retryConnect(client);
+            }
+        };
+        try {
+            client.connect(options, null, listener);
+        } catch (MqttException exception) {
+            log.error("MQTT 发布客户端连接失败，{} 毫秒后重试: {}", CONNECT_RETRY_MILLIS, exception.getMessage());
+            retryConnect(client);
+        }
+    }
+
+    /**
+     * 稍后重试连接
+     *
+     * @param client 发布客户端
+     */
+    private void retryConnect(@NotNull MqttAsyncClient client) {
+        try {
+            connectScheduler.schedule(() -> connectPublisher(client), CONNECT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // 已关闭
+        }
+    }
+
+    /**
+     * 发布客户端首次连接成功后加入轮流发送
+     *
+     * @param client 连接成功的客户端
+     * @apiNote 首个连接成功的客户端先发出首次连接之前缓存的消息，之后的消息才能发送，保证顺序；
+     * 之后断线时由客户端自动重连，消息进入客户端的持久化缓存
+     */
+    private void markReady(@NotNull MqttAsyncClient client) {
+        synchronized (pendingQueue) {
+            MqttAsyncClient[] clients = readyPublishers;
+            if (Arrays.asList(clients).contains(client)) {
+                return;
+            }
+            if (clients.length == 0) {
+                flushPending(client);
+            }
+            MqttAsyncClient[] readyClients = Arrays.copyOf(clients, clients.length + 1);
+            readyClients[clients.length] = client;
+            readyPublishers = readyClients;
+        }
+    }
+
+    /**
+     * 把首次连接之前缓存的消息交给已连接的客户端
+     *
+     * @param client 首个连接成功的客户端
+     */
+    private void flushPending(@NotNull MqttAsyncClient client) {
+        Pending pending;
+        while (Objects.nonNull(pending = pendingQueue.poll())) {
+            CompletableFuture<Void> future = pending.future();
+            try {
+                client.publish(pending.topic(), pending.message(), null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        if (Objects.nonNull(future)) {
+                            future.complete(null);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        if (Objects.nonNull(future)) {
+                            future.completeExceptionally(exception);
+                        }
+                    }
+                });
+            } catch (MqttException exception) {
+                log.warn("MQTT 发送缓存的消息失败：{} {}", pending.topic(), exception.getMessage());
+                if (Objects.nonNull(future)) {
+                    future.completeExceptionally(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭发布客户端
+     *
+     * @param clients 发布客户端列表
+     */
+    private void closePublishers(@NotNull List<MqttAsyncClient> clients) {
+        for (MqttAsyncClient client : clients) {
+            try {
+                if (client.isConnected()) {
+                    client.disconnect().waitForCompletion(mqttConfig.getPublisherConnectTimeout());
+                }
+                client.close();
+            } catch (MqttException exception) {
+                log.warn("关闭 MQTT 发布客户端失败: {}", exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取 Broker 地址
+     *
+     * @return 地址
+     */
+    private @NotNull String getServerUri() {
+        return "tcp://" + mqttConfig.getHost() + ":" + mqttConfig.getPort();
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(connectScheduler)) {
+            connectScheduler.shutdownNow();
+        }
+        if (Objects.nonNull(publishers)) {
+            closePublishers(publishers);
+        }
+        synchronized (pendingQueue) {
+            Pending pending;
+            while (Objects.nonNull(pending = pendingQueue.poll())) {
+                if (Objects.nonNull(pending.future())) {
+                    pending.future().completeExceptionally(
+                            new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED)
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * 首次连接之前缓存的消息
+     *
+     * @param topic   主题
+     * @param message 消息
+     * @param future  发送结果
+     */
+    private record Pending(String topic, MqttMessage message, CompletableFuture<Void> future) {
+    }
 }
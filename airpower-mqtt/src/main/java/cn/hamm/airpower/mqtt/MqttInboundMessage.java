@@ -0,0 +1,45 @@
+package cn.hamm.airpower.mqtt;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.jetbrains.annotations.NotNull;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>收到的 MQTT 消息</h1>
+ *
+ * @author Hamm.cn
+ */
+@Data
+@Accessors(chain = true)
+public class MqttInboundMessage {
+    /**
+     * 主题
+     */
+    private String topic;
+
+    /**
+     * 消息体
+     */
+    private byte[] payload;
+
+    /**
+     * QoS
+     */
+    private int qos;
+
+    /**
+     * 是否为保留消息
+     */
+    private boolean retained;
+
+    /**
+     * 获取 UTF-8 编码的消息内容
+     *
+     * @return 消息内容
+     */
+    public final @NotNull String getPayloadAsString() {
+        return new String(payload, UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package cn.hamm.airpower.mqtt;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * <h1>标记为一个 MQTT 消息监听方法</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 方法的参数为 {@link MqttInboundMessage}，或者批量接收时为 {@code List<MqttInboundMessage>}。
+ * 同一个主题的消息按到达顺序处理，不同主题的消息并发处理。
+ * 每个主题（和分组）是一个独立的订阅，多个主题相互重叠时，同一条消息会按每个匹配的订阅各处理一次
+ */
+@Target(METHOD)
+@Retention(RUNTIME)
+public @interface MqttListener {
+    /**
+     * 订阅的主题，支持 {@code +} 和 {@code #} 通配符
+     */
+    String[] value();
+
+    /**
+     * 共享订阅的分组，为空时不使用共享订阅
+     *
+     * @apiNote 设置后以 {@code $share/分组/主题} 订阅，同一分组的多个节点分摊消息
+     */
+    String group() default "";
+
+    /**
+     * 订阅的 QoS
+     */
+    int qos() default 0;
+
+    /**
+     * 每批最多的消息数，大于 {@code 1} 时方法的参数为消息列表
+     */
+    int batchSize() default 1;
+}
@@ -0,0 +1,626 @@
+package cn.hamm.airpower.mqtt;
+
+import cn.hamm.airpower.core.exception.ServiceException;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.*;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>MQTT 监听容器</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 收集所有 Bean 中标记了 {@link MqttListener} 的方法，每个订阅（主题过滤器和共享分组）使用一个独立的客户端，
+ * 客户端收到的消息只分发给该订阅的监听方法，重叠的订阅和不同的共享分组互不影响。
+ * 消息按主题散列到固定的处理线程，同一个主题的消息按顺序处理，处理线程每次取出队列中已有的消息，批量交给批量监听方法。
+ * 回调线程只入队不阻塞：QoS 1、2 的消息处理完才向 Broker 确认，由 Broker 的未确认窗口限流；
+ * QoS 0 的消息在处理线程的队列排满后丢弃
+ */
+@Slf4j
+@Component
+public class MqttListenerContainer implements BeanPostProcessor, SmartInitializingSingleton, DisposableBean {
+    /**
+     * 客户端 ID 前缀
+     */
+    private static final String CLIENT_ID_PREFIX = "airpower-listener-";
+
+    /**
+     * 共享订阅前缀
+     */
+    private static final String SHARE_PREFIX = "$share/";
+
+    /**
+     * 连接或订阅失败后的重试间隔（秒）
+     */
+    private static final long RETRY_SECOND = 5;
+
+    /**
+     * 处理线程每次最多取出的消息数
+     */
+    private static final int DRAIN_MAX = 500;
+
+    /**
+     * 停止时断开连接前等待进行中的投递完成的时间（毫秒）
+     */
+    private static final long QUIESCE_MILLIS = 1000;
+
+    /**
+     * 停止时等待处理线程处理完队列的时间（毫秒）
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * 处理线程取出消息时每次等待的时间（毫秒）
+     */
+    private static final long QUEUE_WAIT_MILLIS = 100;
+
+    /**
+     * 丢弃消息时每隔多少条记录一次日志
+     */
+    private static final int DROP_LOG_INTERVAL = 1000;
+
+    /**
+     * 监听方法
+     */
+    private final List<Handler> handlers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 订阅
+     */
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    /**
+     * 因处理线程队列已满丢弃的 QoS 0 消息数
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    private BeanFactory beanFactory;
+
+    /**
+     * 处理线程
+     */
+    private volatile Lane[] lanes;
+
+    /**
+     * 处理线程的 QoS 0 消息队列容量
+     */
+    private volatile int laneCapacity;
+
+    /**
+     * 连接和订阅重试线程
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * 是否运行中
+     */
+    private volatile boolean running = false;
+
+    /**
+     * 是否接收新的消息
+     */
+    private volatile boolean accepting = false;
+
+    @Override
+    public Object postProcessAfterInitialization(@NotNull Object bean, @NotNull String beanName) {
+        Class<?> targetClass = AopUtils.getTargetClass(bean);
+        Map<Method, MqttListener> methods = MethodIntrospector.selectMethods(targetClass,
+                (MethodIntrospector.MetadataLookup<MqttListener>) method ->
+                        AnnotatedElementUtils.findMergedAnnotation(method, MqttListener.class)
+        );
+        methods.forEach((method, annotation) ->
+                handlers.add(new Handler(bean, AopUtils.selectInvocableMethod(method, bean.getClass()), annotation))
+        );
+        return bean;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        MqttConfig mqttConfig = beanFactory.getBean(MqttConfig.class);
+        int threads = mqttConfig.getListenerThreads() > 0 ?
+                mqttConfig.getListenerThreads() : Runtime.getRuntime().availableProcessors();
+        laneCapacity = Math.max(mqttConfig.getListenerQueueCapacity(), 1);
+        Lane[] laneArray = new Lane[threads];
+        running = true;
+        accepting = true;
+        for (int i = 0; i < threads; i++) {
+            laneArray[i] = new Lane();
+            Thread thread = new Thread(laneArray[i], "mqtt-listener-" + i);
+            thread.setDaemon(true);
+            laneArray[i].thread = thread;
+            thread.start();
+        }
+        lanes = laneArray;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mqtt-listener-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Subscriber> subscriberMap = new LinkedHashMap<>();
+        handlers.forEach(handler -> handler.getSubscriptions().forEach(subscription ->
+                subscriberMap.computeIfAbsent(subscription, Subscriber::new).add(handler)
+        ));
+        MqttHelper mqttHelper = beanFactory.getBean(MqttHelper.class);
+        for (Subscriber subscriber : subscriberMap.values()) {
+            try {
+                subscriber.client = mqttHelper.createAsyncClient(CLIENT_ID_PREFIX + UUID.randomUUID());
+            } catch (MqttException exception) {
+                throw new ServiceException("创建 MQTT 监听客户端失败，" + exception.getMessage());
+            }
+            subscriber.client.setManualAcks(true);
+            subscriber.client.setCallback(subscriber);
+            subscribers.add(subscriber);
+            connect(subscriber);
+        }
+        log.info("扫描到 {} 个 MQTT 监听方法，{} 个订阅", handlers.size(), subscribers.size());
+    }
+
+    /**
+     * 连接 Broker
+     *
+     * @param subscriber 订阅
+     * @apiNote 首次连接失败时定时重试，连接成功后由客户端自动重连
+     */
+    private void connect(@NotNull Subscriber subscriber) {
+        if (!running) {
+            return;
+        }
+        MqttConnectOptions options = beanFactory.getBean(MqttHelper.class).createOption();
+        // 监听客户端不保留会话，连接后由 connectComplete 重新订阅
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        try {
+            subscriber.client.connect(options, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    log.info("MQTT 监听客户端已连接: {}", subscriber.subscription);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, @NotNull Throwable exception) {
+                    log.error("MQTT 监听客户端连接失败，{} 秒后重试: {}", RETRY_SECOND, exception.getMessage());
+                    schedule(() -> connect(subscriber));
+                }
+            });
+        } catch (MqttException exception) {
+            log.error("MQTT 监听客户端连接失败，{} 秒后重试: {}", RETRY_SECOND, exception.getMessage());
+            schedule(() -> connect(subscriber));
+        }
+    }
+
+    /**
+     * 订阅主题
+     *
+     * @param subscriber 订阅
+     * @apiNote 订阅失败或被 Broker 拒绝时定时重试，断线期间不重试，重连后由 connectComplete 重新订阅
+     */
+    private void subscribe(@NotNull Subscriber subscriber) {
+        if (!running || !subscriber.client.isConnected()) {
+            return;
+        }
+        try {
+            subscriber.client.subscribe(subscriber.subscription, subscriber.qos, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(@NotNull IMqttToken asyncActionToken) {
+                    int[] grantedQos = asyncActionToken.getGrantedQos();
+                    if (Objects.nonNull(grantedQos) && grantedQos.length > 0
+                            && grantedQos[0] == MqttException.REASON_CODE_SUBSCRIBE_FAILED) {
+                        log.error("MQTT 监听订阅被拒绝，{} 秒后重试: {}", RETRY_SECOND, subscriber.subscription);
+                        schedule(() -> subscribe(subscriber));
+                        return;
+                    }
+                    log.info("MQTT 监听订阅主题: {}", subscriber.subscription);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, @NotNull Throwable exception) {
+                    log.error("MQTT 监听订阅失败，{} 秒后重试: {} {}",
+                            RETRY_SECOND, subscriber.subscription, exception.getMessage());
+                    schedule(() -> subscribe(subscriber));
+                }
+            });
+        } catch (MqttException exception) {
+            log.error("MQTT 监听订阅失败，{} 秒后重试: {} {}", RETRY_SECOND, subscriber.subscription, exception.getMessage());
+            schedule(() -> subscribe(subscriber));
+        }
+    }
+
+    /**
+     * 稍后重试
+     *
+     * @param task 任务
+     */
+    private void schedule(@NotNull Runnable task) {
+        try {
+            scheduler.schedule(task, RETRY_SECOND, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // 已停止
+        }
+    }
+
+    /**
+     * 分发一批消息到监听方法并确认
+     *
+     * @param deliveries 消息列表，同一个主题的消息按到达顺序排列
+     */
+    private void dispatch(@NotNull List<Delivery> deliveries) {
+        Map<Subscriber, List<MqttInboundMessage>> messageMap = new LinkedHashMap<>();
+        deliveries.forEach(delivery ->
+                messageMap.computeIfAbsent(delivery.subscriber, key -> new ArrayList<>()).add(delivery.message)
+        );
+        messageMap.forEach((subscriber, messages) ->
+                subscriber.handlers.forEach(handler -> handler.dispatch(messages))
+        );
+        deliveries.forEach(delivery -> delivery.subscriber.complete(delivery));
+    }
+
+    /**
+     * 停止监听
+     *
+     * @throws Exception 断开连接失败时抛出
+     * @apiNote 先停止接收新的消息并断开连接，再等待处理线程处理完队列中已有的消息，超时后中断处理线程
+     */
+    @Override
+    public void destroy() throws Exception {
+        accepting = false;
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdownNow();
+        }
+        try {
+            MqttException failure = null;
+            for (Subscriber subscriber : subscribers) {
+                try {
+                    if (subscriber.client.isConnected()) {
+                        subscriber.client.disconnect(QUIESCE_MILLIS).waitForCompletion(QUIESCE_MILLIS * 2);
+                    }
+                    subscriber.client.close();
+                } catch (MqttException exception) {
+                    failure = exception;
+                }
+            }
+            if (Objects.nonNull(failure)) {
+                throw failure;
+            }
+        } finally {
+            running = false;
+            stopLanes();
+        }
+    }
+
+    /**
+     * 等待处理线程处理完队列后退出
+     */
+    private void stopLanes() {
+        if (Objects.isNull(lanes)) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Lane lane : lanes) {
+            if (lane.thread.isAlive()) {
+                log.warn("MQTT 监听处理线程 {} 未能处理完队列，剩余 {} 条消息", lane.thread.getName(), lane.queue.size());
+                lane.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * <h2>订阅</h2>
+     *
+     * @apiNote 一个订阅一个客户端，客户端收到的消息一定来自该订阅
+     */
+    private class Subscriber implements MqttCallbackExtended {
+        /**
+         * 订阅的主题过滤器，共享订阅时带有分组前缀
+         */
+        private final String subscription;
+
+        /**
+         * 订阅的监听方法
+         */
+        private final List<Handler> handlers = new ArrayList<>();
+
+        /**
+         * 按到达顺序排列的未确认消息，只在持有该队列的锁时访问
+         */
+        private final Deque<Delivery> unackedQueue = new ArrayDeque<>();
+
+        /**
+         * 订阅的 QoS，取监听方法中最大的
+         */
+        private int qos = 0;
+
+        /**
+         * 客户端
+         */
+        private MqttAsyncClient client;
+
+        /**
+         * 创建订阅
+         *
+         * @param subscription 主题过滤器
+         */
+        private Subscriber(String subscription) {
+            this.subscription = subscription;
+        }
+
+        /**
+         * 添加监听方法
+         *
+         * @param handler 监听方法
+         */
+        private void add(@NotNull Handler handler) {
+            handlers.add(handler);
+            qos = Math.max(qos, handler.annotation.qos());
+        }
+
+        /**
+         * 标记消息已处理，按到达顺序确认已处理的消息
+         *
+         * @param delivery 消息
+         * @apiNote MQTT 要求按收到的顺序确认，不同主题的消息在不同的处理线程中完成，先完成的等待之前的消息
+         */
+        private void complete(@NotNull Delivery delivery) {
+            if (delivery.qos == 0) {
+                return;
+            }
+            synchronized (unackedQueue) {
+                delivery.processed = true;
+                Delivery head;
+                while (Objects.nonNull(head = unackedQueue.peekFirst()) && head.processed) {
+                    unackedQueue.pollFirst();
+                    try {
+                        client.messageArrivedComplete(head.id, head.qos);
+                    } catch (Exception exception) {
+                        log.warn("MQTT 监听确认消息失败: {} {}", head.message.getTopic(), exception.getMessage());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            subscribe(this);
+        }
+
+        @Override
+        public void connectionLost(Throwable throwable) {
+            log.warn("MQTT 监听连接断开，等待自动重连: {}", throwable.getMessage());
+            // 不保留会话，断线前未确认的消息不再确认
+            synchronized (unackedQueue) {
+                unackedQueue.clear();
+            }
+        }
+
+        @Override
+        public void messageArrived(String topic, @NotNull MqttMessage mqttMessage) {
+            if (!accepting) {
+                log.warn("MQTT 监听已停止，丢弃消息: {}", topic);
+                return;
+            }
+            Delivery delivery = new Delivery(this, new MqttInboundMessage()
+                    .setTopic(topic)
+                    .setPayload(mqttMessage.getPayload())
+                    .setQos(mqttMessage.getQos())
+                    .setRetained(mqttMessage.isRetained()),
+                    mqttMessage.getId(), mqttMessage.getQos());
+            // 回调线程不能阻塞，否则会拖住心跳导致断线
+            BlockingQueue<Delivery> queue = lanes[Math.floorMod(topic.hashCode(), lanes.length)].queue;
+            if (delivery.qos == 0) {
+                if (queue.size() >= laneCapacity) {
+                    long count = dropped.incrementAndGet();
+                    if (count % DROP_LOG_INTERVAL == 1) {
+                        log.warn("MQTT 监听处理线程队列已满，累计丢弃 {} 条 QoS 0 消息: {}", count, topic);
+                    }
+                    return;
+                }
+                queue.add(delivery);
+                return;
+            }
+            // QoS 1、2 的消息处理完才确认，Broker 的未确认窗口限制了排队的数量
+            synchronized (unackedQueue) {
+                unackedQueue.addLast(delivery);
+            }
+            queue.add(delivery);
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
+
+        }
+    }
+
+    /**
+     * <h2>收到的消息</h2>
+     */
+    private static class Delivery {
+        /**
+         * 订阅
+         */
+        private final Subscriber subscriber;
+
+        /**
+         * 消息
+         */
+        private final MqttInboundMessage message;
+
+        /**
+         * 消息 ID
+         */
+        private final int id;
+
+        /**
+         * QoS
+         */
+        private final int qos;
+
+        /**
+         * 是否已处理，只在持有订阅的未确认队列的锁时访问
+         */
+        private boolean processed = false;
+
+        /**
+         * 创建收到的消息
+         *
+         * @param subscriber 订阅
+         * @param message    消息
+         * @param id         消息 ID
+         * @param qos        QoS
+         */
+        private Delivery(Subscriber subscriber, MqttInboundMessage message, int id, int qos) {
+            this.subscriber = subscriber;
+            this.message = message;
+            this.id = id;
+            this.qos = qos;
+        }
+    }
+
+    /**
+     * <h2>处理线程</h2>
+     */
+    private class Lane implements Runnable {
+        /**
+         * 消息队列，QoS 0 的消息由回调线程按容量丢弃
+         */
+        private final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>();
+
+        /**
+         * 线程
+         */
+        private Thread thread;
+
+        @Override
+        public void run() {
+            // 停止后继续处理完队列中已有的消息再退出
+            while (running || !queue.isEmpty()) {
+                Delivery first;
+                try {
+                    first = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (Objects.isNull(first)) {
+                    continue;
+                }
+                List<Delivery> deliveries = new ArrayList<>();
+                deliveries.add(first);
+                queue.drainTo(deliveries, DRAIN_MAX - 1);
+                dispatch(deliveries);
+            }
+        }
+    }
+
+    /**
+     * <h2>监听方法</h2>
+     */
+    private static class Handler {
+        /**
+         * Bean
+         */
+        private final Object bean;
+
+        /**
+         * 方法
+         */
+        private final Method method;
+
+        /**
+         * 注解
+         */
+        private final MqttListener annotation;
+
+        /**
+         * 创建监听方法
+         *
+         * @param bean       Bean
+         * @param method     方法
+         * @param annotation 注解
+         */
+        private Handler(Object bean, @NotNull Method method, @NotNull MqttListener annotation) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            Class<?> expected = annotation.batchSize() > 1 ? List.class : MqttInboundMessage.class;
+            if (parameterTypes.length != 1 || !parameterTypes[0].isAssignableFrom(expected)) {
+                throw new ServiceException(String.format(
+                        "MQTT 监听方法 %s 的参数必须为 %s", method, expected.getSimpleName()
+                ));
+            }
+            ReflectionUtils.makeAccessible(method);
+            this.bean = bean;
+            this.method = method;
+            this.annotation = annotation;
+        }
+
+        /**
+         * 获取订阅的主题过滤器
+         *
+         * @return 主题过滤器，共享订阅时带有分组前缀
+         */
+        private @NotNull List<String> getSubscriptions() {
+            if (!StringUtils.hasText(annotation.group())) {
+                return List.of(annotation.value());
+            }
+            return Arrays.stream(annotation.value())
+                    .map(topic -> SHARE_PREFIX + annotation.group() + "/" + topic)
+                    .toList();
+        }
+
+        /**
+         * 分发一批消息
+         *
+         * @param messages 订阅收到的消息
+         */
+        private void dispatch(@NotNull List<MqttInboundMessage> messages) {
+            int batchSize = annotation.batchSize();
+            if (batchSize <= 1) {
+                messages.forEach(this::invoke);
+                return;
+            }
+            for (int i = 0; i < messages.size(); i += batchSize) {
+                invoke(messages.subList(i, Math.min(i + batchSize, messages.size())));
+            }
+        }
+
+        /**
+         * 调用监听方法
+         *
+         * @param argument 消息或消息列表
+         */
+        private void invoke(Object argument) {
+            try {
+                method.invoke(bean, argument);
+            } catch (InvocationTargetException exception) {
+                log.error("MQTT 监听方法 {} 处理失败", method.getName(), exception.getTargetException());
+            } catch (Exception exception) {
+                log.error("MQTT 监听方法 {} 调用失败", method.getName(), exception);
+            }
+        }
+    }
+}
@@ -41,4 +41,14 @@ public interface IOpenApp {
      * @return 是否禁用
      */
     Boolean getIsDisabled();
+
+    /**
+     * 获取限流阈值
+     *
+     * @return 每个限流窗口允许的请求数，{@code null} 时使用配置文件的阈值
+     * @see OpenConfig#getRateLimit()
+     */
+    default Integer getRateLimit() {
+        return null;
+    }
 }
@@ -0,0 +1,234 @@
+package cn.hamm.airpower.open;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.StringUtils;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <h1>IP 白名单</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每行一个 IPv4 / IPv6 地址或 {@code CIDR} 网段，如 {@code 10.0.0.0/8}、{@code 2001:db8::/32}；
+ * 编译为按位前缀树，匹配最多比较地址位数次，无法解析的条目按原字符串精确匹配
+ */
+@Slf4j
+public class IpWhiteList {
+    /**
+     * IPv4 地址字节数
+     */
+    private static final int IPV4_BYTES = 4;
+
+    /**
+     * 原始白名单
+     */
+    @Getter
+    private final String source;
+
+    /**
+     * IPv4 前缀树
+     */
+    private final Node ipv4Root = new Node();
+
+    /**
+     * IPv6 前缀树
+     */
+    private final Node ipv6Root = new Node();
+
+    /**
+     * 无法解析为地址的条目
+     */
+    private final Set<String> rawSet = new HashSet<>();
+
+    /**
+     * 编译 IP 白名单
+     *
+     * @param source 每行一个地址或网段的白名单
+     */
+    public IpWhiteList(@NotNull String source) {
+        this.source = source;
+        for (String line : source.split("\n")) {
+            String entry = line.trim();
+            if (!entry.isEmpty()) {
+                addEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * 是否在白名单内
+     *
+     * @param ip IP 地址
+     * @return 是否允许
+     */
+    public final boolean contains(@NotNull String ip) {
+        if (rawSet.contains(ip)) {
+            return true;
+        }
+        byte[] address = parseAddress(ip);
+        if (Objects.isNull(address)) {
+            return false;
+        }
+        Node node = address.length == IPV4_BYTES ? ipv4Root : ipv6Root;
+        int bitCount = address.length * Byte.SIZE;
+        for (int i = 0; i < bitCount; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            node = node.children[getBit(address, i)];
+            if (Objects.isNull(node)) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    /**
+     * 添加条目
+     *
+     * @param entry 地址或网段
+     */
+    private void addEntry(@NotNull String entry) {
+        String host = entry;
+        Integer prefixLength = null;
+        int slashIndex = entry.indexOf('/');
+        if (slashIndex > 0) {
+            host = entry.substring(0, slashIndex);
+            try {
+                prefixLength = Integer.parseInt(entry.substring(slashIndex + 1));
+            } catch (NumberFormatException exception) {
+                log.warn("IP 白名单网段格式错误 {}", entry);
+                rawSet.add(entry);
+                return;
+            }
+        }
+        byte[] address = parseAddress(host);
+        int bitCount = Objects.isNull(address) ? 0 : address.length * Byte.SIZE;
+        if (Objects.isNull(address) || (Objects.nonNull(prefixLength) && (prefixLength < 0 || prefixLength > bitCount))) {
+            rawSet.add(entry);
+            return;
+        }
+        int length = Objects.requireNonNullElse(prefixLength, bitCount);
+        Node node = address.length == IPV4_BYTES ? ipv4Root : ipv6Root;
+        for (int i = 0; i < length && !node.terminal; i++) {
+            int bit = getBit(address, i);
+            if (Objects.isNull(node.children[bit])) {
+                node.children[bit] = new Node();
+            }
+            node = node.children[bit];
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * 解析 IP 地址
+     *
+     * @param ip IP 地址
+     * @return 地址字节，不是合法的 IP 地址时返回 {@code null}
+     */
+    private static byte @Nullable [] parseAddress(@NotNull String ip) {
+        if (!StringUtils.hasText(ip)) {
+            return null;
+        }
+        if (ip.indexOf(':') < 0) {
+            return parseIpv4(ip);
+        }
+        if (!isIpv6Literal(ip)) {
+            return null;
+        }
+        try {
+            // 已确认只包含 IPv6 字面量的字符，InetAddress 只做字面量解析，不会发起 DNS 查询
+            return InetAddress.getByName(ip).getAddress();
+        } catch (Exception exception) {
+            return null;
+        }
+    }
+
+    /**
+     * 是否只包含 IPv6 字面量的字符
+     *
+     * @param ip IP 地址
+     * @return 是否为十六进制数字、{@code :}、{@code .} 及可选的 {@code %网卡} 后缀
+     */
+    private static boolean isIpv6Literal(@NotNull String ip) {
+        int scopeIndex = ip.indexOf('%');
+        int end = scopeIndex < 0 ? ip.length() : scopeIndex;
+        if (end == 0 || scopeIndex == ip.length() - 1) {
+            return false;
+        }
+        for (int i = 0; i < ip.length(); i++) {
+            char current = ip.charAt(i);
+            if (i < end) {
+                if (current != ':' && current != '.' && Character.digit(current, 16) < 0) {
+                    return false;
+                }
+            } else if (i > end && !Character.isLetterOrDigit(current) && current != '_' && current != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析 IPv4 地址
+     *
+     * @param ip IPv4 地址
+     * @return 地址字节，格式错误时返回 {@code null}
+     */
+    private static byte @Nullable [] parseIpv4(@NotNull String ip) {
+        byte[] address = new byte[IPV4_BYTES];
+        int index = 0;
+        int value = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char current = i < ip.length() ? ip.charAt(i) : '.';
+            if (current == '.') {
+                if (value < 0 || index >= IPV4_BYTES) {
+                    return null;
+                }
+                address[index++] = (byte) value;
+                value = -1;
+                continue;
+            }
+            if (current < '0' || current > '9') {
+                return null;
+            }
+            value = (value < 0 ? 0 : value * 10) + (current - '0');
+            if (value > 255) {
+                return null;
+            }
+        }
+        return index == IPV4_BYTES ? address : null;
+    }
+
+    /**
+     * 获取地址的第 {@code index} 位
+     *
+     * @param address 地址
+     * @param index   位序号
+     * @return {@code 0} 或 {@code 1}
+     */
+    private static int getBit(byte @NotNull [] address, int index) {
+        return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * <h2>前缀树节点</h2>
+     */
+    private static class Node {
+        /**
+         * 子节点
+         */
+        private final Node[] children = new Node[2];
+
+        /**
+         * 是否为网段终点
+         */
+        private boolean terminal = false;
+    }
+}
@@ -6,6 +6,7 @@ import cn.hamm.airpower.core.Json;
 import cn.hamm.airpower.core.exception.ServiceException;
 import cn.hamm.airpower.redis.RedisHelper;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
@@ -17,9 +18,11 @@ import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.Objects;
 
 import static cn.hamm.airpower.exception.Errors.*;
 
@@ -42,6 +45,21 @@ public class OpenApiAspect<S extends IOpenAppService> {
      */
     private static final String NONCE_CACHE_PREFIX = "NONCE_";
 
+    /**
+     * 限流阈值响应头
+     */
+    private static final String HEADER_RATE_LIMIT = "X-RateLimit-Limit";
+
+    /**
+     * 限流剩余次数响应头
+     */
+    private static final String HEADER_RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+
+    /**
+     * 限流窗口重置秒数响应头
+     */
+    private static final String HEADER_RATE_LIMIT_RESET = "X-RateLimit-Reset";
+
     @Autowired(required = false)
     private S openAppService;
 
@@ -51,6 +69,15 @@ public class OpenApiAspect<S extends IOpenAppService> {
     @Autowired
     private RedisHelper redisHelper;
 
+    @Autowired
+    private OpenConfig openConfig;
+
+    @Autowired
+    private OpenAppCache openAppCache;
+
+    @Autowired
+    private OpenRateLimiter openRateLimiter;
+
     @SuppressWarnings("EmptyMethod")
     @Pointcut("@annotation(cn.hamm.airpower.open.OpenApi)")
     public void pointCut() {
@@ -63,13 +90,14 @@ public class OpenApiAspect<S extends IOpenAppService> {
     public Object openApi(@NotNull ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
         validOpenApi(proceedingJoinPoint);
         OpenRequest openRequest = getOpenRequest(proceedingJoinPoint);
-        IOpenApp openApp = getOpenApp(openRequest);
-        checkIpWhiteList(openApp);
-        openRequest.checkSignature(openApp);
+        OpenAppCredential credential = getOpenAppCredential(openRequest);
+        checkIpWhiteList(credential);
+        openRequest.checkSignature(credential, openConfig.getSignatureType());
+        checkRateLimit(openRequest.getAppKey(), credential.getOpenApp());
         Object object = proceedingJoinPoint.proceed();
         if (object instanceof Json json) {
             // 如果是Json 需要将 Json.data 对输出的数据进行加密
-            json.setData(OpenResponse.encodeResponse(openRequest.getOpenApp(), json.getData()));
+            json.setData(OpenResponse.encodeResponse(openRequest, json.getData()));
         }
         return object;
     }
@@ -99,8 +127,13 @@ public class OpenApiAspect<S extends IOpenAppService> {
         if (!(args[0] instanceof OpenRequest openRequest)) {
             throw new ServiceException("OpenApi 必须接收一个 OpenRequest参数");
         }
+        if (!StringUtils.hasText(openRequest.getAppKey()) &&
+                StringUtils.hasText(request.getHeader(OpenRequest.HEADER_APP_KEY))) {
+            // 未绑定请求体时从请求头和原始请求体读取
+            openRequest.readFromRequest(request, openConfig.getMaxContentBytes());
+        }
         checkTimestamp(openRequest.getTimestamp());
-        checkNonce(openRequest.getNonce());
+        checkNonce(openRequest.getNonce(), openRequest.getTimestamp());
         return openRequest;
     }
 
@@ -119,47 +152,86 @@ public class OpenApiAspect<S extends IOpenAppService> {
     }
 
     /**
-     * 获取请求的应用
+     * 获取请求的应用凭据
      *
      * @param openRequest {@code OpenRequest}
-     * @return {@code OpenApp}
+     * @return 应用凭据
      */
-    private @NotNull IOpenApp getOpenApp(@NotNull OpenRequest openRequest) {
+    private @NotNull OpenAppCredential getOpenAppCredential(@NotNull OpenRequest openRequest) {
         INVALID_APP_KEY.when(!StringUtils.hasText(openRequest.getAppKey()));
         SERVICE_ERROR.whenNull(openAppService, "注入 OpenAppService 失败");
-        IOpenApp openApp = openAppService.getByAppKey(openRequest.getAppKey());
-        INVALID_APP_KEY.whenNull(openApp);
-        FORBIDDEN_OPEN_APP_DISABLED.when(openApp.getIsDisabled());
-        return openApp;
+        OpenAppCredential credential = openAppCache.get(openRequest.getAppKey(), openAppService::getByAppKey);
+        INVALID_APP_KEY.whenNull(credential);
+        FORBIDDEN_OPEN_APP_DISABLED.when(credential.getOpenApp().getIsDisabled());
+        return credential;
     }
 
     /**
      * 验证 IP 白名单
+     *
+     * @param credential 应用凭据
      */
-    private void checkIpWhiteList(@NotNull IOpenApp openApp) {
-        final String ipStr = openApp.getIpWhiteList();
-        if (!StringUtils.hasText(ipStr)) {
+    private void checkIpWhiteList(@NotNull OpenAppCredential credential) {
+        final IpWhiteList ipWhiteList = credential.getIpWhiteList();
+        if (Objects.isNull(ipWhiteList)) {
             // 未配置 IP 白名单
             return;
         }
-        final String[] ipList = ipStr.split("\n");
         final String ip = RequestUtil.getIpAddress(request);
         if (!StringUtils.hasText(ip)) {
             MISSING_REQUEST_ADDRESS.show();
         }
-        if (Arrays.stream(ipList).map(String::trim).toList().contains(ip)) {
+        if (ipWhiteList.contains(ip.trim())) {
             return;
         }
         INVALID_REQUEST_ADDRESS.show();
     }
 
+    /**
+     * 限流检测
+     *
+     * @param appKey  AppKey
+     * @param openApp 应用
+     */
+    private void checkRateLimit(@NotNull String appKey, @NotNull IOpenApp openApp) {
+        final int limit = openRateLimiter.getLimit(appKey, openApp);
+        if (limit <= 0) {
+            return;
+        }
+        OpenRateLimiter.Result result = openRateLimiter.tryAcquire(appKey, limit);
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            HttpServletResponse response = attributes.getResponse();
+            if (Objects.nonNull(response)) {
+                response.setHeader(HEADER_RATE_LIMIT, String.valueOf(result.limit()));
+                response.setHeader(HEADER_RATE_LIMIT_REMAINING, String.valueOf(result.remaining()));
+                response.setHeader(HEADER_RATE_LIMIT_RESET, String.valueOf(
+                        (result.resetMillis() + DateTimeUtil.MILLISECONDS_PER_SECOND - 1) / DateTimeUtil.MILLISECONDS_PER_SECOND
+                ));
+            }
+        }
+        REQUEST_TOO_FREQUENT.when(!result.allowed());
+    }
+
     /**
      * 防重放检测
+     *
+     * @param nonce     随机串
+     * @param timestamp 请求时间戳
      */
-    private void checkNonce(String nonce) {
-        String cacheKey = NONCE_CACHE_PREFIX + nonce;
-        Object savedNonce = redisHelper.get(cacheKey);
-        REPEAT_REQUEST.whenNotNull(savedNonce);
-        redisHelper.set(cacheKey, 1, NONCE_CACHE_SECOND);
+    private void checkNonce(String nonce, long timestamp) {
+        final int bucketSecond = openConfig.getNonceBucketSecond();
+        boolean isFirst;
+        if (bucketSecond > 0) {
+            // 按请求时间戳分桶，桶在最后一个可能有效的请求过期后失效
+            long bucketMillis = (long) bucketSecond * DateTimeUtil.MILLISECONDS_PER_SECOND;
+            long bucketId = timestamp / bucketMillis;
+            long expireMillis = (bucketId + 1) * bucketMillis - System.currentTimeMillis()
+                    + (long) NONCE_CACHE_SECOND * DateTimeUtil.MILLISECONDS_PER_SECOND;
+            long expireSecond = Math.max(1, expireMillis / DateTimeUtil.MILLISECONDS_PER_SECOND);
+            isFirst = redisHelper.addToSetIfAbsent(NONCE_CACHE_PREFIX + bucketId, nonce, expireSecond);
+        } else {
+            isFirst = redisHelper.setIfAbsent(NONCE_CACHE_PREFIX + nonce, 1, NONCE_CACHE_SECOND);
+        }
+        REPEAT_REQUEST.when(!isFirst);
     }
 }
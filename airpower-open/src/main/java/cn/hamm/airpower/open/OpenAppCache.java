@@ -0,0 +1,89 @@
+package cn.hamm.airpower.open;
+
+import cn.hamm.airpower.core.DateTimeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * <h1>开放应用缓存</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 按 AppKey 缓存应用凭据，修改应用后请调用 {@link #invalidate(String)} 使本节点的缓存失效，
+ * 其他节点的缓存在 {@link OpenConfig#getAppCacheSecond()} 后过期
+ */
+@Slf4j
+@Component
+public class OpenAppCache {
+    /**
+     * 凭据缓存
+     */
+    private final ConcurrentMap<String, OpenAppCredential> credentialMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private OpenConfig openConfig;
+
+    /**
+     * 获取应用凭据
+     *
+     * @param appKey AppKey
+     * @param loader 应用加载器
+     * @return 应用凭据，应用不存在时返回 {@code null}
+     */
+    public final @Nullable OpenAppCredential get(@NotNull String appKey, @NotNull Function<String, IOpenApp> loader) {
+        OpenAppCredential credential = credentialMap.get(appKey);
+        if (Objects.nonNull(credential) && !credential.isExpired()) {
+            return credential;
+        }
+        IOpenApp openApp = loader.apply(appKey);
+        if (Objects.isNull(openApp)) {
+            close(credentialMap.remove(appKey));
+            return null;
+        }
+        long expireMillis = (long) openConfig.getAppCacheSecond() * DateTimeUtil.MILLISECONDS_PER_SECOND;
+        credential = new OpenAppCredential(
+                openApp,
+                System.currentTimeMillis() + expireMillis,
+                (long) openConfig.getSessionKeyCacheSecond() * DateTimeUtil.MILLISECONDS_PER_SECOND
+        );
+        if (expireMillis > 0) {
+            close(credentialMap.put(appKey, credential));
+        }
+        return credential;
+    }
+
+    /**
+     * 使应用缓存失效
+     *
+     * @param appKey AppKey
+     */
+    public final void invalidate(@NotNull String appKey) {
+        close(credentialMap.remove(appKey));
+        log.info("开放应用缓存已失效 {}", appKey);
+    }
+
+    /**
+     * 使全部应用缓存失效
+     */
+    public final void invalidateAll() {
+        credentialMap.keySet().forEach(appKey -> close(credentialMap.remove(appKey)));
+    }
+
+    /**
+     * 释放被移出缓存的凭据
+     *
+     * @param credential 凭据
+     */
+    private void close(@Nullable OpenAppCredential credential) {
+        if (Objects.nonNull(credential)) {
+            credential.close();
+        }
+    }
+}
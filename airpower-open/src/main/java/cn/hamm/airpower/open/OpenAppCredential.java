@@ -0,0 +1,300 @@
+package cn.hamm.airpower.open;
+
+import cn.hamm.airpower.core.AesUtil;
+import cn.hamm.airpower.core.RsaUtil;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <h1>开放应用凭据</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 缓存应用、已设置密钥的加解密工具、解析后的私钥以及数字信封的会话密钥。
+ * 加解密工具不保证线程安全，按需创建后放入有界的池中复用，每次只借给一个线程；凭据被移出缓存时清空池
+ */
+public class OpenAppCredential {
+    /**
+     * 每个应用最多缓存的会话密钥数量
+     */
+    private static final int MAX_SESSION_KEY_COUNT = 4096;
+
+    /**
+     * 每种加解密工具最多保留的空闲实例数量
+     */
+    private static final int MAX_POOLED_UTIL_COUNT = 64;
+
+    /**
+     * 应用
+     */
+    @Getter
+    private final IOpenApp openApp;
+
+    /**
+     * 过期时间
+     */
+    private final long expireTime;
+
+    /**
+     * 空闲的 AES 工具
+     */
+    private final Queue<AesUtil> aesUtilPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 空闲的 RSA 工具
+     */
+    private final Queue<RsaUtil> rsaUtilPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 空闲实例数量，{@code -1} 为已关闭
+     */
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * 会话密钥
+     */
+    private final ConcurrentMap<String, SessionKey> sessionKeyMap = new ConcurrentHashMap<>();
+
+    /**
+     * 会话密钥缓存时长
+     *
+     * @apiNote 单位毫秒
+     */
+    private final long sessionKeyExpireMillis;
+
+    /**
+     * 已解析的私钥
+     */
+    private volatile PrivateKey privateKey;
+
+    /**
+     * 已编译的 IP 白名单
+     */
+    private volatile IpWhiteList ipWhiteList;
+
+    /**
+     * 创建应用凭据
+     *
+     * @param openApp                应用
+     * @param expireTime             过期时间
+     * @param sessionKeyExpireMillis 会话密钥缓存时长(毫秒)
+     */
+    OpenAppCredential(@NotNull IOpenApp openApp, long expireTime, long sessionKeyExpireMillis) {
+        this.openApp = openApp;
+        this.expireTime = expireTime;
+        this.sessionKeyExpireMillis = sessionKeyExpireMillis;
+    }
+
+    /**
+     * AES 加密
+     *
+     * @param content 明文
+     * @return 密文
+     * @throws Exception 加密失败时抛出
+     */
+    public final String aesEncrypt(String content) throws Exception {
+        AesUtil aesUtil = borrow(aesUtilPool, () -> AesUtil.create().setKey(openApp.getAppSecret()));
+        try {
+            return aesUtil.encrypt(content);
+        } finally {
+            giveBack(aesUtilPool, aesUtil);
+        }
+    }
+
+    /**
+     * AES 解密
+     *
+     * @param content 密文
+     * @return 明文
+     * @throws Exception 解密失败时抛出
+     */
+    public final String aesDecrypt(String content) throws Exception {
+        AesUtil aesUtil = borrow(aesUtilPool, () -> AesUtil.create().setKey(openApp.getAppSecret()));
+        try {
+            return aesUtil.decrypt(content);
+        } finally {
+            giveBack(aesUtilPool, aesUtil);
+        }
+    }
+
+    /**
+     * RSA 公钥加密
+     *
+     * @param content 明文
+     * @return 密文
+     * @throws Exception 加密失败时抛出
+     */
+    public final String rsaPublicKeyEncrypt(String content) throws Exception {
+        RsaUtil rsaUtil = borrow(rsaUtilPool, () -> RsaUtil.create().setPrivateKey(openApp.getPrivateKey()));
+        try {
+            return rsaUtil.publicKeyEncrypt(content);
+        } finally {
+            giveBack(rsaUtilPool, rsaUtil);
+        }
+    }
+
+    /**
+     * RSA 私钥解密
+     *
+     * @param content 密文
+     * @return 明文
+     * @throws Exception 解密失败时抛出
+     */
+    public final String rsaPrivateKeyDecrypt(String content) throws Exception {
+        RsaUtil rsaUtil = borrow(rsaUtilPool, () -> RsaUtil.create().setPrivateKey(openApp.getPrivateKey()));
+        try {
+            return rsaUtil.privateKeyDecrypt(content);
+        } finally {
+            giveBack(rsaUtilPool, rsaUtil);
+        }
+    }
+
+    /**
+     * 获取已解析的私钥
+     *
+     * @return 私钥
+     * @apiNote 私钥为 Base64 编码的 {@code PKCS#8} 格式
+     */
+    public final PrivateKey getPrivateKey() throws GeneralSecurityException {
+        PrivateKey key = privateKey;
+        if (Objects.isNull(key)) {
+            byte[] keyBytes = Base64.getMimeDecoder().decode(openApp.getPrivateKey());
+            key = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+            privateKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * 获取已编译的 IP 白名单
+     *
+     * @return IP 白名单，未配置时返回 {@code null}
+     * @apiNote 应用的白名单变化时重新编译
+     */
+    public final @Nullable IpWhiteList getIpWhiteList() {
+        final String source = openApp.getIpWhiteList();
+        if (!StringUtils.hasText(source)) {
+            return null;
+        }
+        IpWhiteList compiled = ipWhiteList;
+        if (Objects.isNull(compiled) || !source.equals(compiled.getSource())) {
+            compiled = new IpWhiteList(source);
+            ipWhiteList = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * 获取缓存的会话密钥
+     *
+     * @param sessionId 会话 ID
+     * @return 会话密钥，不存在或已过期时返回 {@code null}
+     */
+    final @Nullable SecretKey getSessionKey(@NotNull String sessionId) {
+        SessionKey sessionKey = sessionKeyMap.get(sessionId);
+        if (Objects.isNull(sessionKey)) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= sessionKey.expireTime()) {
+            sessionKeyMap.remove(sessionId);
+            return null;
+        }
+        return sessionKey.secretKey();
+    }
+
+    /**
+     * 缓存会话密钥
+     *
+     * @param sessionId 会话 ID
+     * @param secretKey 会话密钥
+     */
+    final void putSessionKey(@NotNull String sessionId, @NotNull SecretKey secretKey) {
+        if (sessionKeyExpireMillis <= 0) {
+            return;
+        }
+        long currentTimeMillis = System.currentTimeMillis();
+        if (sessionKeyMap.size() >= MAX_SESSION_KEY_COUNT) {
+            sessionKeyMap.values().removeIf(item -> currentTimeMillis >= item.expireTime());
+        }
+        if (sessionKeyMap.size() < MAX_SESSION_KEY_COUNT) {
+            sessionKeyMap.put(sessionId, new SessionKey(secretKey, currentTimeMillis + sessionKeyExpireMillis));
+        }
+    }
+
+    /**
+     * 是否已过期
+     *
+     * @return 是否过期
+     */
+    final boolean isExpired() {
+        return System.currentTimeMillis() >= expireTime;
+    }
+
+    /**
+     * 释放缓存的加解密工具和会话密钥
+     *
+     * @apiNote 凭据被移出缓存时调用，之后归还的工具直接丢弃，正在使用该凭据的请求不受影响
+     */
+    final void close() {
+        pooledCount.set(-1);
+        aesUtilPool.clear();
+        rsaUtilPool.clear();
+        sessionKeyMap.clear();
+    }
+
+    /**
+     * 从池中借出工具，没有空闲的实例时创建
+     *
+     * @param pool    池
+     * @param factory 创建方法
+     * @param <T>     工具类型
+     * @return 工具，只由当前线程使用
+     */
+    private <T> @NotNull T borrow(@NotNull Queue<T> pool, @NotNull Supplier<T> factory) {
+        T util = pool.poll();
+        if (Objects.isNull(util)) {
+            return factory.get();
+        }
+        pooledCount.getAndUpdate(count -> count > 0 ? count - 1 : count);
+        return util;
+    }
+
+    /**
+     * 把工具还回池中
+     *
+     * @param pool 池
+     * @param util 工具
+     * @param <T>  工具类型
+     * @apiNote 空闲实例已达上限或凭据已关闭时丢弃
+     */
+    private <T> void giveBack(@NotNull Queue<T> pool, @NotNull T util) {
+        int count = pooledCount.getAndUpdate(current -> current >= 0 && current < MAX_POOLED_UTIL_COUNT ? current + 1 : current);
+        if (count >= 0 && count < MAX_POOLED_UTIL_COUNT) {
+            pool.offer(util);
+        }
+    }
+
+    /**
+     * 会话密钥
+     *
+     * @param secretKey  密钥
+     * @param expireTime 过期时间
+     */
+    private record SessionKey(SecretKey secretKey, long expireTime) {
+    }
+}
@@ -27,7 +27,14 @@ public enum OpenArithmeticType implements IDictionary {
     /**
      * RSA 算法
      */
-    RSA(2, "RSA");
+    RSA(2, "RSA"),
+
+    /**
+     * RSA 加密会话密钥，AES-GCM 加密数据
+     *
+     * @see OpenEnvelope
+     */
+    RSA_AES(3, "RSA+AES");
 
     private final int key;
     private final String label;
@@ -0,0 +1,81 @@
+package cn.hamm.airpower.open;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h1>Open API 配置</h1>
+ *
+ * @author Hamm.cn
+ */
+@Data
+@Configuration
+@ConfigurationProperties("airpower.open")
+public class OpenConfig {
+    /**
+     * 签名方式
+     */
+    private OpenSignatureType signatureType = OpenSignatureType.SHA1;
+
+    /**
+     * 应用凭据缓存时长
+     *
+     * @apiNote 单位秒，{@code 0} 为不缓存
+     */
+    private int appCacheSecond = 60;
+
+    /**
+     * 数字信封会话密钥缓存时长
+     *
+     * @apiNote 单位秒，缓存期间调用方可使用会话 ID 代替加密的会话密钥，{@code 0} 为不缓存
+     * @see OpenEnvelope
+     */
+    private int sessionKeyCacheSecond = 600;
+
+    /**
+     * 请求体最大字节数
+     *
+     * @apiNote JSON 请求体在解析之前检查，请求头方式在读取请求体时检查，超过后直接拒绝，{@code 0} 为不限制
+     */
+    private int maxContentBytes = 2 * 1024 * 1024;
+
+    /**
+     * 防重放分桶时长
+     *
+     * @apiNote 单位秒，大于 {@code 0} 时按请求时间戳分桶，同一桶内的 nonce 存入同一个 Redis 集合；
+     * {@code 0} 为每个 nonce 单独存储
+     */
+    private int nonceBucketSecond = 0;
+
+    /**
+     * 默认限流阈值
+     *
+     * @apiNote 每个应用每个限流窗口允许的请求数，{@code 0} 为不限流
+     */
+    private int rateLimit = 0;
+
+    /**
+     * 指定应用的限流阈值
+     *
+     * @apiNote key 为 AppKey，优先级低于 {@link IOpenApp#getRateLimit()}
+     */
+    private Map<String, Integer> rateLimits = new HashMap<>();
+
+    /**
+     * 限流窗口时长
+     *
+     * @apiNote 单位秒
+     */
+    private int rateLimitWindowSecond = 1;
+
+    /**
+     * 限流每次从 Redis 申领的配额比例
+     *
+     * @apiNote 百分比，节点在本地消耗申领的配额，用完后再访问 Redis
+     */
+    private int rateLimitBatchPercent = 10;
+}
@@ -0,0 +1,179 @@
+package cn.hamm.airpower.open;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+
+import static cn.hamm.airpower.exception.Errors.DECRYPT_DATA_FAIL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>Open API 数字信封</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 用于 {@link OpenArithmeticType#RSA_AES} 算法：
+ * <ul>
+ *     <li>请求体格式为 {@code 密钥段.IV.密文}，各段均为 Base64 编码</li>
+ *     <li>首次请求的密钥段为使用应用公钥以 {@code RSA/ECB/OAEPWithSHA-256AndMGF1Padding} 加密的 256 位 AES 会话密钥</li>
+ *     <li>服务端会缓存会话密钥，后续请求的密钥段可改为会话 ID，即首次密钥段 SHA-256 摘要的前 32 位十六进制字符</li>
+ *     <li>业务数据使用 {@code AES/GCM/NoPadding} 加密，AppKey 作为附加认证数据</li>
+ *     <li>响应体格式为 {@code IV.密文}，使用请求的会话密钥加密</li>
+ * </ul>
+ */
+public class OpenEnvelope {
+    /**
+     * 分隔符
+     */
+    private static final String SEPARATOR = ".";
+
+    /**
+     * 会话 ID 长度
+     */
+    private static final int SESSION_ID_LENGTH = 32;
+
+    /**
+     * GCM 认证标签位数
+     */
+    private static final int GCM_TAG_BITS = 128;
+
+    /**
+     * GCM IV 字节数
+     */
+    private static final int GCM_IV_BYTES = 12;
+
+    /**
+     * AES 会话密钥字节数
+     */
+    private static final int SESSION_KEY_BYTES = 32;
+
+    /**
+     * AES 加密方式
+     */
+    private static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * RSA 加密方式
+     */
+    private static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+
+    /**
+     * 随机数生成器
+     */
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    /**
+     * 线程内复用的 AES 加密器
+     */
+    private static final ThreadLocal<Cipher> AES_CIPHER = ThreadLocal.withInitial(() -> getCipher(AES_TRANSFORMATION));
+
+    /**
+     * 线程内复用的 RSA 加密器
+     */
+    private static final ThreadLocal<Cipher> RSA_CIPHER = ThreadLocal.withInitial(() -> getCipher(RSA_TRANSFORMATION));
+
+    /**
+     * 禁止实例化
+     */
+    @Contract(pure = true)
+    private OpenEnvelope() {
+    }
+
+    /**
+     * 获取请求的会话密钥
+     *
+     * @param credential 应用凭据
+     * @param content    请求体
+     * @return 会话密钥
+     */
+    static @NotNull SecretKey getSessionKey(@NotNull OpenAppCredential credential, @NotNull String content)
+            throws GeneralSecurityException {
+        String keyPart = getParts(content, 3)[0];
+        if (keyPart.length() == SESSION_ID_LENGTH) {
+            SecretKey sessionKey = credential.getSessionKey(keyPart);
+            DECRYPT_DATA_FAIL.whenNull(sessionKey, "会话密钥已过期，请重新发送加密的会话密钥");
+            return sessionKey;
+        }
+        Cipher cipher = RSA_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, credential.getPrivateKey());
+        byte[] keyBytes = cipher.doFinal(Base64.getDecoder().decode(keyPart));
+        DECRYPT_DATA_FAIL.when(keyBytes.length != SESSION_KEY_BYTES, "会话密钥长度错误");
+        SecretKey sessionKey = new SecretKeySpec(keyBytes, "AES");
+        credential.putSessionKey(DigestUtils.sha256Hex(keyPart).substring(0, SESSION_ID_LENGTH), sessionKey);
+        return sessionKey;
+    }
+
+    /**
+     * 解密请求体
+     *
+     * @param sessionKey 会话密钥
+     * @param appKey     AppKey
+     * @param content    请求体
+     * @return 明文
+     */
+    static @NotNull String decrypt(@NotNull SecretKey sessionKey, @NotNull String appKey, @NotNull String content)
+            throws GeneralSecurityException {
+        String[] parts = getParts(content, 3);
+        Cipher cipher = AES_CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, sessionKey, new GCMParameterSpec(
+                GCM_TAG_BITS, Base64.getDecoder().decode(parts[1])
+        ));
+        cipher.updateAAD(appKey.getBytes(UTF_8));
+        return new String(cipher.doFinal(Base64.getDecoder().decode(parts[2])), UTF_8);
+    }
+
+    /**
+     * 加密响应体
+     *
+     * @param sessionKey 会话密钥
+     * @param appKey     AppKey
+     * @param data       明文
+     * @return {@code IV.密文}
+     */
+    static @NotNull String encrypt(@NotNull SecretKey sessionKey, @NotNull String appKey, @NotNull String data)
+            throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_BYTES];
+        SECURE_RANDOM.nextBytes(iv);
+        Cipher cipher = AES_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, sessionKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+        cipher.updateAAD(appKey.getBytes(UTF_8));
+        byte[] encrypted = cipher.doFinal(data.getBytes(UTF_8));
+        Base64.Encoder encoder = Base64.getEncoder();
+        return encoder.encodeToString(iv) + SEPARATOR + encoder.encodeToString(encrypted);
+    }
+
+    /**
+     * 拆分请求体
+     *
+     * @param content 请求体
+     * @param count   段数
+     * @return 各段
+     */
+    private static String @NotNull [] getParts(@NotNull String content, int count) {
+        String[] parts = content.split("\\.", count);
+        DECRYPT_DATA_FAIL.when(parts.length != count, "数字信封格式错误");
+        return parts;
+    }
+
+    /**
+     * 创建加密器
+     *
+     * @param transformation 加密方式
+     * @return 加密器
+     */
+    private static @NotNull Cipher getCipher(String transformation) {
+        try {
+            return Objects.requireNonNull(Cipher.getInstance(transformation));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("不支持的加密方式 " + transformation, e);
+        }
+    }
+}
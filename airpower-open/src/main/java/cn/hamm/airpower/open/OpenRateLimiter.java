@@ -0,0 +1,314 @@
+package cn.hamm.airpower.open;
+
+import cn.hamm.airpower.core.DateTimeUtil;
+import cn.hamm.airpower.redis.RedisHelper;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>开放应用限流器</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 按 AppKey 滑动窗口限流，集群共享每个窗口的 Redis 计数器：
+ * 节点每次从 Redis 申领一批配额在本地消耗，配额用完才再次访问 Redis；
+ * 放行前按上一个窗口的请求数加权估算滑动窗口内的请求数，Redis 不可用时退化为节点内限流
+ */
+@Slf4j
+@Component
+public class OpenRateLimiter {
+    /**
+     * 限流计数器前缀
+     */
+    private static final String RATE_LIMIT_PREFIX = "OPEN_RATE_LIMIT_";
+
+    /**
+     * 限流桶
+     */
+    private final ConcurrentMap<String, Bucket> bucketMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private OpenConfig openConfig;
+
+    @Autowired
+    private RedisHelper redisHelper;
+
+    /**
+     * 获取应用的限流阈值
+     *
+     * @param appKey  AppKey
+     * @param openApp 应用
+     * @return 每个窗口允许的请求数，{@code 0} 为不限流
+     */
+    public final int getLimit(@NotNull String appKey, @NotNull IOpenApp openApp) {
+        Integer limit = openApp.getRateLimit();
+        if (Objects.isNull(limit)) {
+            limit = openConfig.getRateLimits().getOrDefault(appKey, openConfig.getRateLimit());
+        }
+        return Math.max(Objects.requireNonNullElse(limit, 0), 0);
+    }
+
+    /**
+     * 尝试获取一次请求的配额
+     *
+     * @param appKey AppKey
+     * @param limit  每个窗口允许的请求数
+     * @return 限流结果
+     */
+    public final @NotNull Result tryAcquire(@NotNull String appKey, int limit) {
+        return bucketMap.computeIfAbsent(appKey, Bucket::new).tryAcquire(limit);
+    }
+
+    /**
+     * 获取限流统计
+     *
+     * @return 各应用的限流统计
+     */
+    public final @NotNull List<Statistic> getStatistics() {
+        return bucketMap.values().stream()
+                .map(bucket -> new Statistic()
+                        .setAppKey(bucket.appKey)
+                        .setAllowed(bucket.allowed.get())
+                        .setRejected(bucket.rejected.get())
+                )
+                .toList();
+    }
+
+    /**
+     * 限流结果
+     *
+     * @param allowed     是否允许
+     * @param limit       窗口阈值
+     * @param remaining   窗口剩余的估计值
+     * @param resetMillis 放行时为距离窗口重置的毫秒数，拒绝时为预计可以重试的毫秒数
+     */
+    public record Result(boolean allowed, long limit, long remaining, long resetMillis) {
+    }
+
+    /**
+     * <h2>限流统计</h2>
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Statistic {
+        /**
+         * AppKey
+         */
+        private String appKey;
+
+        /**
+         * 放行次数
+         */
+        private long allowed;
+
+        /**
+         * 拒绝次数
+         */
+        private long rejected;
+    }
+
+    /**
+     * <h2>应用的限流桶</h2>
+     */
+    private class Bucket {
+        /**
+         * AppKey
+         */
+        private final String appKey;
+
+        /**
+         * 放行次数
+         */
+        private final AtomicLong allowed = new AtomicLong();
+
+        /**
+         * 拒绝次数
+         */
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * 当前窗口
+         */
+        private long windowId = -1;
+
+        /**
+         * 上一个窗口的集群请求数
+         */
+        private long previousCount = 0;
+
+        /**
+         * 上一个窗口的集群请求数是否已从 Redis 读取
+         */
+        private boolean previousSynced = false;
+
+        /**
+         * 本地剩余配额
+         */
+        private long localTokens = 0;
+
+        /**
+         * 集群已申领的配额
+         */
+        private long clusterUsed = 0;
+
+        /**
+         * 当前窗口的集群配额是否已用完
+         */
+        private boolean exhausted = false;
+
+        /**
+         * 进行中的配额申领
+         */
+        private CompletableFuture<Void> leasing;
+
+        private Bucket(String appKey) {
+            this.appKey = appKey;
+        }
+
+        /**
+         * 尝试获取一次请求的配额
+         *
+         * @param limit 每个窗口允许的请求数
+         * @return 限流结果
+         * @apiNote 本地配额用完时只有一个线程访问 Redis 申领，其他线程等待该次申领的结果，访问 Redis 时不持有桶的锁
+         */
+        private @NotNull Result tryAcquire(int limit) {
+            final long windowMillis = (long) Math.max(openConfig.getRateLimitWindowSecond(), 1)
+                    * DateTimeUtil.MILLISECONDS_PER_SECOND;
+            for (int attempt = 0; ; attempt++) {
+                final long now = System.currentTimeMillis();
+                final long leaseWindowId;
+                final boolean syncPrevious;
+                final CompletableFuture<Void> future;
+                synchronized (this) {
+                    roll(now / windowMillis);
+                    if (localTokens > 0 || exhausted || attempt > 0) {
+                        return take(limit, now, windowMillis);
+                    }
+                    if (Objects.nonNull(leasing)) {
+                        future = leasing;
+                        leaseWindowId = -1;
+                        syncPrevious = false;
+                    } else {
+                        future = new CompletableFuture<>();
+                        leasing = future;
+                        leaseWindowId = windowId;
+                        syncPrevious = !previousSynced;
+                    }
+                }
+                if (leaseWindowId < 0) {
+                    future.join();
+                    continue;
+                }
+                try {
+                    lease(limit, windowMillis, leaseWindowId, syncPrevious);
+                } finally {
+                    synchronized (this) {
+                        leasing = null;
+                    }
+                    future.complete(null);
+                }
+            }
+        }
+
+        /**
+         * 切换到指定窗口
+         *
+         * @param currentWindowId 当前窗口
+         */
+        private void roll(long currentWindowId) {
+            if (currentWindowId == windowId) {
+                return;
+            }
+            // 先以本节点所知的数量作为上一个窗口的请求数，下次申领时再从 Redis 读取集群的准确值
+            previousCount = currentWindowId == windowId + 1 ? clusterUsed - localTokens : 0;
+            previousSynced = false;
+            windowId = currentWindowId;
+            localTokens = 0;
+            clusterUsed = 0;
+            exhausted = false;
+        }
+
+        /**
+         * 按滑动窗口估算的请求数消耗一个本地配额
+         *
+         * @param limit        每个窗口允许的请求数
+         * @param now          当前时间
+         * @param windowMillis 窗口时长
+         * @return 限流结果
+         * @apiNote 估算的请求数为上一个窗口的请求数按未过去的比例加权，加上当前窗口已消耗的配额，
+         * 避免固定窗口在边界两侧各放行一次阈值的突发
+         */
+        private @NotNull Result take(int limit, long now, long windowMillis) {
+            final long elapsed = now % windowMillis;
+            final long resetMillis = windowMillis - elapsed;
+            final long weightedPrevious = previousCount * (windowMillis - elapsed) / windowMillis;
+            final long estimated = weightedPrevious + clusterUsed - localTokens;
+            if (localTokens <= 0 || estimated >= limit) {
+                rejected.incrementAndGet();
+                // 上一个窗口的权重随时间下降，按线性衰减估算腾出一个配额的时间
+                long waitMillis = estimated >= limit && previousCount > 0 ?
+                        (estimated - limit + 1) * windowMillis / previousCount : resetMillis;
+                return new Result(false, limit, 0, Math.min(Math.max(waitMillis, 1), resetMillis));
+            }
+            localTokens--;
+            allowed.incrementAndGet();
+            return new Result(true, limit, Math.max(limit - estimated - 1, 0), resetMillis);
+        }
+
+        /**
+         * 从 Redis 申领一批配额
+         *
+         * @param limit         每个窗口允许的请求数
+         * @param windowMillis  窗口时长
+         * @param leaseWindowId 申领的窗口
+         * @param syncPrevious  是否同时读取上一个窗口的集群请求数
+         */
+        private void lease(int limit, long windowMillis, long leaseWindowId, boolean syncPrevious) {
+            long batch = Math.max(1, (long) limit * openConfig.getRateLimitBatchPercent() / 100);
+            batch = Math.min(batch, limit);
+            // 计数器需要在下一个窗口中作为上一个窗口继续被读取
+            final long expireSecond = windowMillis * 2 / DateTimeUtil.MILLISECONDS_PER_SECOND + 1;
+            long used;
+            long previous = -1;
+            try {
+                used = redisHelper.increment(RATE_LIMIT_PREFIX + appKey + "_" + leaseWindowId, batch, expireSecond);
+                if (syncPrevious) {
+                    previous = redisHelper.increment(RATE_LIMIT_PREFIX + appKey + "_" + (leaseWindowId - 1), 0, expireSecond);
+                }
+            } catch (Exception exception) {
+                log.warn("限流计数器访问失败，使用节点内限流, {}", exception.getMessage());
+                synchronized (this) {
+                    used = clusterUsed + batch;
+                }
+            }
+            synchronized (this) {
+                if (leaseWindowId != windowId) {
+                    // 申领期间窗口已切换，配额属于已过去的窗口
+                    return;
+                }
+                if (previous >= 0) {
+                    previousCount = previous;
+                    previousSynced = true;
+                }
+                long granted = Math.min(batch, limit - (used - batch));
+                clusterUsed = used;
+                if (granted <= 0) {
+                    exhausted = true;
+                    return;
+                }
+                localTokens += granted;
+            }
+        }
+    }
+}
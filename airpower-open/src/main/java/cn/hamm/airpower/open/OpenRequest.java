@@ -2,23 +2,71 @@ package cn.hamm.airpower.open;
 
 import cn.hamm.airpower.core.*;
 import cn.hamm.airpower.core.exception.ServiceException;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
 
 import static cn.hamm.airpower.exception.Errors.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * <h1>Open API 请求体</h1>
  *
  * @author Hamm.cn
+ * @apiNote 支持两种传参方式：以 {@code @RequestBody} 绑定 JSON 请求体；或者参数不标记 {@code @RequestBody}，
+ * 由请求头携带 {@link #HEADER_APP_KEY} 等字段、请求体只放 {@code content}。两种方式都受
+ * {@link OpenConfig#getMaxContentBytes()} 限制
  */
 @Slf4j
 @Setter
 public class OpenRequest {
+    /**
+     * AppKey 请求头
+     */
+    public static final String HEADER_APP_KEY = "X-Open-App-Key";
+
+    /**
+     * 版本号请求头
+     */
+    public static final String HEADER_VERSION = "X-Open-Version";
+
+    /**
+     * 时间戳请求头
+     */
+    public static final String HEADER_TIMESTAMP = "X-Open-Timestamp";
+
+    /**
+     * 随机串请求头
+     */
+    public static final String HEADER_NONCE = "X-Open-Nonce";
+
+    /**
+     * 签名请求头
+     */
+    public static final String HEADER_SIGNATURE = "X-Open-Signature";
+
+    /**
+     * 读取请求体的缓冲区大小
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * 按请求体长度预分配的最大容量
+     */
+    private static final int MAX_INITIAL_CONTENT_CAPACITY = 8192;
+
     /**
      * AppKey
      */
@@ -65,6 +113,19 @@ public class OpenRequest {
     @Getter
     private IOpenApp openApp;
 
+    /**
+     * 当前请求的应用凭据
+     */
+    @Getter
+    @Setter(AccessLevel.NONE)
+    private OpenAppCredential credential;
+
+    /**
+     * 数字信封的会话密钥
+     */
+    @Setter(AccessLevel.NONE)
+    private SecretKey sessionKey;
+
     /**
      * 强转请求数据到指定的类对象
      *
@@ -95,10 +156,9 @@ public class OpenRequest {
         );
         try {
             switch (appArithmeticType) {
-                case AES -> request = AesUtil.create().setKey(openApp.getAppSecret())
-                        .decrypt(request);
-                case RSA -> request = RsaUtil.create().setPrivateKey(openApp.getPrivateKey())
-                        .privateKeyDecrypt(request);
+                case AES -> request = credential.aesDecrypt(request);
+                case RSA -> request = credential.rsaPrivateKeyDecrypt(request);
+                case RSA_AES -> request = OpenEnvelope.decrypt(getSessionKey(), appKey, request);
                 case NO -> {
                 }
                 default -> throw new ServiceException("解密失败，不支持的加密算法类型");
@@ -111,26 +171,88 @@ public class OpenRequest {
         return request;
     }
 
+    /**
+     * 获取数字信封的会话密钥
+     *
+     * @return 会话密钥
+     */
+    final SecretKey getSessionKey() throws GeneralSecurityException {
+        if (Objects.isNull(sessionKey)) {
+            sessionKey = OpenEnvelope.getSessionKey(credential, content);
+        }
+        return sessionKey;
+    }
+
     /**
      * 签名验证
      *
-     * @param openApp 应用对象
+     * @param credential    应用凭据
+     * @param signatureType 签名方式
      */
-    final void checkSignature(IOpenApp openApp) {
-        this.openApp = openApp;
-        String sign = sign();
-        SIGNATURE_INVALID.whenNotEquals(signature, sign);
+    final void checkSignature(@org.jetbrains.annotations.NotNull OpenAppCredential credential,
+                              @org.jetbrains.annotations.NotNull OpenSignatureType signatureType) {
+        this.credential = credential;
+        this.openApp = credential.getOpenApp();
+        SIGNATURE_INVALID.when(!OpenSigner.verify(sign(signatureType), signature));
+    }
+
+    /**
+     * 从请求头和请求体读取请求
+     *
+     * @param request         请求
+     * @param maxContentBytes 请求体最大字节数，{@code 0} 为不限制
+     * @apiNote 请求头携带 {@link #HEADER_APP_KEY} 等参数，请求体为 {@code content}。
+     * 签名和解密都需要完整的 {@code content}，请求体会整体读入内存，读取时计数，超过上限时立即拒绝；
+     * 相比 JSON 请求体省去的是 JSON 解析和转义，而不是缓冲。
+     * 控制器方法的 {@link OpenRequest} 参数不能标记 {@code @RequestBody}，否则请求体会先被当作 JSON 读取
+     */
+    final void readFromRequest(@org.jetbrains.annotations.NotNull HttpServletRequest request, int maxContentBytes) {
+        appKey = request.getHeader(HEADER_APP_KEY);
+        nonce = request.getHeader(HEADER_NONCE);
+        signature = request.getHeader(HEADER_SIGNATURE);
+        try {
+            version = Integer.valueOf(request.getHeader(HEADER_VERSION));
+            timestamp = Long.valueOf(request.getHeader(HEADER_TIMESTAMP));
+        } catch (NumberFormatException exception) {
+            throw new ServiceException(PARAM_INVALID, "请求头中的版本号或时间戳无效");
+        }
+        PARAM_MISSING.when(!StringUtils.hasText(nonce), "请求随机串不能为空");
+        PARAM_MISSING.when(!StringUtils.hasText(signature), "签名字符串不能为空");
+        final String tooLargeMessage = "请求体不能超过 " + maxContentBytes + " 字节";
+        long contentLength = request.getContentLengthLong();
+        PARAM_INVALID.when(maxContentBytes > 0 && contentLength > maxContentBytes, tooLargeMessage);
+        // 请求体长度由客户端声明，只按较小的上限预分配
+        ByteArrayOutputStream output = new ByteArrayOutputStream(
+                (int) Math.min(Math.max(contentLength, 0), MAX_INITIAL_CONTENT_CAPACITY)
+        );
+        try (InputStream input = request.getInputStream()) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                PARAM_INVALID.when(maxContentBytes > 0 && output.size() + length > maxContentBytes, tooLargeMessage);
+                output.write(buffer, 0, length);
+            }
+        } catch (IOException exception) {
+            log.error(exception.getMessage(), exception);
+            throw new ServiceException(PARAM_INVALID, "读取请求体失败");
+        }
+        content = output.toString(UTF_8);
+        PARAM_MISSING.when(content.isEmpty(), "业务数据包体不能为空");
     }
 
     /**
      * 签名
      *
+     * @param signatureType 签名方式
      * @return 签名后的字符串
      */
-    private @org.jetbrains.annotations.NotNull String sign() {
-        String source = openApp.getAppSecret() + appKey + version + timestamp + nonce + content;
-        String sign = DigestUtils.sha1Hex(source);
-        log.info("签名比对 {} {} {}", sign, signature, source);
-        return sign;
+    private @org.jetbrains.annotations.NotNull String sign(
+            @org.jetbrains.annotations.NotNull OpenSignatureType signatureType) {
+        try {
+            return OpenSigner.sign(signatureType, openApp.getAppSecret(), appKey, version, timestamp, nonce, content);
+        } catch (GeneralSecurityException exception) {
+            log.error(exception.getMessage(), exception);
+            throw new ServiceException(SIGNATURE_INVALID);
+        }
     }
 }
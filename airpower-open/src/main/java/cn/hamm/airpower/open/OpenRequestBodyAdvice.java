@@ -0,0 +1,120 @@
+package cn.hamm.airpower.open;
+
+import cn.hamm.airpower.core.exception.ServiceException;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+import static cn.hamm.airpower.exception.Errors.PARAM_INVALID;
+
+/**
+ * <h1>Open API 请求体大小限制</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 对 {@link OpenApi} 方法中以 {@code @RequestBody} 绑定的 {@link OpenRequest}，在 JSON 解析之前检查
+ * {@link OpenConfig#getMaxContentBytes()}：声明的长度超过上限时直接拒绝，未声明长度时读取超过上限后中断解析
+ */
+@ControllerAdvice
+public class OpenRequestBodyAdvice extends RequestBodyAdviceAdapter {
+    @Autowired
+    private OpenConfig openConfig;
+
+    @Override
+    public boolean supports(@NotNull MethodParameter methodParameter, @NotNull Type targetType,
+                            @NotNull Class<? extends HttpMessageConverter<?>> converterType) {
+        return OpenRequest.class.isAssignableFrom(methodParameter.getParameterType())
+                && methodParameter.hasMethodAnnotation(OpenApi.class);
+    }
+
+    @Override
+    public @NotNull HttpInputMessage beforeBodyRead(@NotNull HttpInputMessage inputMessage,
+                                                    @NotNull MethodParameter parameter, @NotNull Type targetType,
+                                                    @NotNull Class<? extends HttpMessageConverter<?>> converterType) {
+        final int maxContentBytes = openConfig.getMaxContentBytes();
+        if (maxContentBytes <= 0) {
+            return inputMessage;
+        }
+        long contentLength = inputMessage.getHeaders().getContentLength();
+        if (contentLength > maxContentBytes) {
+            throw new ServiceException(PARAM_INVALID, "请求体不能超过 " + maxContentBytes + " 字节");
+        }
+        return new HttpInputMessage() {
+            @Override
+            public @NotNull InputStream getBody() throws IOException {
+                return new LimitedInputStream(inputMessage.getBody(), maxContentBytes);
+            }
+
+            @Override
+            public @NotNull HttpHeaders getHeaders() {
+                return inputMessage.getHeaders();
+            }
+        };
+    }
+
+    /**
+     * <h2>限制读取字节数的输入流</h2>
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        /**
+         * 最多读取的字节数
+         */
+        private final long limit;
+
+        /**
+         * 已读取的字节数
+         */
+        private long count = 0;
+
+        /**
+         * 创建输入流
+         *
+         * @param input 原始输入流
+         * @param limit 最多读取的字节数
+         */
+        private LimitedInputStream(InputStream input, long limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte @NotNull [] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        /**
+         * 累计读取的字节数
+         *
+         * @param read 本次读取的字节数
+         * @throws IOException 超过上限时抛出，中断 JSON 解析
+         */
+        private void count(int read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new IOException("请求体不能超过 " + limit + " 字节");
+            }
+        }
+    }
+}
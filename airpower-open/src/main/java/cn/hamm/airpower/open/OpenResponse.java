@@ -1,10 +1,9 @@
 package cn.hamm.airpower.open;
 
-import cn.hamm.airpower.core.AesUtil;
 import cn.hamm.airpower.core.DictionaryUtil;
 import cn.hamm.airpower.core.Json;
-import cn.hamm.airpower.core.RsaUtil;
 import cn.hamm.airpower.core.exception.ServiceException;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Objects;
@@ -25,20 +24,58 @@ public class OpenResponse {
      * @return 加密后的数据
      */
     public static <A extends IOpenApp> @Nullable String encodeResponse(A openApp, Object data) {
+        return encodeResponse(new OpenAppCredential(openApp, 0, 0), data);
+    }
+
+    /**
+     * 加密响应数据
+     *
+     * @param openRequest 请求
+     * @param data        数据
+     * @return 加密后的数据
+     * @apiNote {@link OpenArithmeticType#RSA_AES} 算法使用请求的会话密钥加密
+     */
+    public static @Nullable String encodeResponse(@NotNull OpenRequest openRequest, Object data) {
+        OpenAppCredential credential = openRequest.getCredential();
+        OpenArithmeticType appArithmeticType = DictionaryUtil.getDictionary(
+                OpenArithmeticType.class, credential.getOpenApp().getArithmetic()
+        );
+        if (appArithmeticType != OpenArithmeticType.RSA_AES) {
+            return encodeResponse(credential, data);
+        }
+        if (Objects.isNull(data)) {
+            return null;
+        }
+        try {
+            return OpenEnvelope.encrypt(openRequest.getSessionKey(), openRequest.getAppKey(), Json.toString(data));
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            ENCRYPT_DATA_FAIL.show();
+            return null;
+        }
+    }
+
+    /**
+     * 加密响应数据
+     *
+     * @param credential 应用凭据
+     * @param data       数据
+     * @return 加密后的数据
+     */
+    public static @Nullable String encodeResponse(@NotNull OpenAppCredential credential, Object data) {
         if (Objects.isNull(data)) {
             // 数据负载为空 直接返回
             return null;
         }
         String response = Json.toString(data);
         OpenArithmeticType appArithmeticType = DictionaryUtil.getDictionary(
-                OpenArithmeticType.class, openApp.getArithmetic()
+                OpenArithmeticType.class, credential.getOpenApp().getArithmetic()
         );
         try {
             switch (appArithmeticType) {
-                case AES -> response = AesUtil.create().setKey(openApp.getAppSecret())
-                        .encrypt(response);
-                case RSA -> response = RsaUtil.create().setPrivateKey(openApp.getPrivateKey())
-                        .publicKeyEncrypt(response);
+                case AES -> response = credential.aesEncrypt(response);
+                case RSA -> response = credential.rsaPublicKeyEncrypt(response);
                 case NO -> {
                 }
                 default -> throw new ServiceException(ENCRYPT_DATA_FAIL, "暂不支持的 OpenApi 加密算法");
@@ -0,0 +1,29 @@
+package cn.hamm.airpower.open;
+
+import cn.hamm.airpower.core.annotation.Description;
+import cn.hamm.airpower.core.interfaces.IDictionary;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * <h1>开放应用签名方式</h1>
+ *
+ * @author Hamm.cn
+ */
+@AllArgsConstructor
+@Getter
+@Description("开放应用签名方式")
+public enum OpenSignatureType implements IDictionary {
+    /**
+     * {@code SHA1(appSecret + appKey + version + timestamp + nonce + content)}
+     */
+    SHA1(0, "SHA1"),
+
+    /**
+     * 以 appSecret 为密钥，对换行分隔的 {@code appKey、version、timestamp、nonce、content} 计算 {@code HMAC-SHA256}
+     */
+    HMAC_SHA256(1, "HMAC-SHA256");
+
+    private final int key;
+    private final String label;
+}
@@ -0,0 +1,128 @@
+package cn.hamm.airpower.open;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>Open API 签名工具</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 各字段分段编码后增量写入摘要，不拼接源字符串
+ */
+public class OpenSigner {
+    /**
+     * HMAC-SHA256 字段分隔符
+     */
+    private static final byte HMAC_SEPARATOR = '\n';
+
+    /**
+     * 编码缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 线程内复用的编码缓冲区
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    /**
+     * 线程内复用的 UTF-8 编码器
+     */
+    private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal.withInitial(() -> UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+    );
+
+    /**
+     * 禁止实例化
+     */
+    @Contract(pure = true)
+    private OpenSigner() {
+    }
+
+    /**
+     * 签名
+     *
+     * @param signatureType 签名方式
+     * @param appSecret     AppSecret
+     * @param fields        参与签名的字段
+     * @return 十六进制签名
+     */
+    static @NotNull String sign(@NotNull OpenSignatureType signatureType, @NotNull String appSecret, Object @NotNull ... fields)
+            throws GeneralSecurityException {
+        return switch (signatureType) {
+            case SHA1 -> {
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+                update(messageDigest::update, appSecret);
+                for (Object field : fields) {
+                    update(messageDigest::update, String.valueOf(field));
+                }
+                yield HexFormat.of().formatHex(messageDigest.digest());
+            }
+            case HMAC_SHA256 -> {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(appSecret.getBytes(UTF_8), "HmacSHA256"));
+                for (int i = 0; i < fields.length; i++) {
+                    if (i > 0) {
+                        mac.update(HMAC_SEPARATOR);
+                    }
+                    update(mac::update, String.valueOf(fields[i]));
+                }
+                yield HexFormat.of().formatHex(mac.doFinal());
+            }
+        };
+    }
+
+    /**
+     * 常量时间比较签名
+     *
+     * @param expected 计算的签名
+     * @param actual   传入的签名
+     * @return 是否一致
+     */
+    static boolean verify(@NotNull String expected, String actual) {
+        if (Objects.isNull(actual)) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected.getBytes(UTF_8), actual.getBytes(UTF_8));
+    }
+
+    /**
+     * 分段编码并写入摘要
+     *
+     * @param consumer 摘要写入方法
+     * @param value    字符串
+     */
+    private static void update(Consumer<ByteBuffer> consumer, @NotNull String value) {
+        CharsetEncoder encoder = ENCODER.get().reset();
+        ByteBuffer buffer = BUFFER.get();
+        CharBuffer charBuffer = CharBuffer.wrap(value);
+        while (true) {
+            buffer.clear();
+            CoderResult result = encoder.encode(charBuffer, buffer, true);
+            if (!result.isOverflow()) {
+                encoder.flush(buffer);
+                buffer.flip();
+                consumer.accept(buffer);
+                return;
+            }
+            buffer.flip();
+            consumer.accept(buffer);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cn.hamm.airpower.open;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <h1>IP 白名单测试</h1>
+ *
+ * @author Hamm.cn
+ */
+class IpWhiteListTest {
+    @Test
+    void exactIpv4Match() {
+        IpWhiteList whiteList = new IpWhiteList("127.0.0.1\n 192.168.1.10 \n");
+        assertTrue(whiteList.contains("127.0.0.1"));
+        assertTrue(whiteList.contains("192.168.1.10"));
+        assertFalse(whiteList.contains("192.168.1.11"));
+        assertFalse(whiteList.contains("127.0.0.2"));
+    }
+
+    @Test
+    void ipv4CidrMatch() {
+        IpWhiteList whiteList = new IpWhiteList("10.0.0.0/8\n172.16.0.0/12\n192.168.1.128/25");
+        assertTrue(whiteList.contains("10.255.255.255"));
+        assertTrue(whiteList.contains("172.31.0.1"));
+        assertFalse(whiteList.contains("172.32.0.1"));
+        assertTrue(whiteList.contains("192.168.1.200"));
+        assertFalse(whiteList.contains("192.168.1.127"));
+        assertFalse(whiteList.contains("11.0.0.1"));
+    }
+
+    @Test
+    void zeroPrefixMatchesOnlySameFamily() {
+        IpWhiteList whiteList = new IpWhiteList("0.0.0.0/0");
+        assertTrue(whiteList.contains("8.8.8.8"));
+        assertFalse(whiteList.contains("::1"));
+    }
+
+    @Test
+    void ipv6Match() {
+        IpWhiteList whiteList = new IpWhiteList("::1\n2001:db8::/32");
+        assertTrue(whiteList.contains("::1"));
+        assertTrue(whiteList.contains("0:0:0:0:0:0:0:1"));
+        assertTrue(whiteList.contains("2001:db8:ffff::1"));
+        assertFalse(whiteList.contains("2001:db9::1"));
+        assertFalse(whiteList.contains("127.0.0.1"));
+    }
+
+    @Test
+    void shorterPrefixCoversLongerEntries() {
+        IpWhiteList whiteList = new IpWhiteList("10.1.2.3\n10.0.0.0/8\n10.1.0.0/16");
+        assertTrue(whiteList.contains("10.1.2.3"));
+        assertTrue(whiteList.contains("10.2.0.1"));
+    }
+
+    @Test
+    void invalidEntriesOnlyMatchLiterally() {
+        IpWhiteList whiteList = new IpWhiteList("10.0.0.0/33\n192.168.1.0/abc\nlocalhost\n256.0.0.1");
+        assertTrue(whiteList.contains("10.0.0.0/33"));
+        assertFalse(whiteList.contains("10.0.0.1"));
+        assertFalse(whiteList.contains("192.168.1.1"));
+        assertTrue(whiteList.contains("localhost"));
+        assertFalse(whiteList.contains("127.0.0.1"));
+        assertFalse(whiteList.contains("0.0.0.1"));
+    }
+
+    @Test
+    void malformedAddressesAreRejected() {
+        IpWhiteList whiteList = new IpWhiteList("0.0.0.0/0\n::/0");
+        assertFalse(whiteList.contains(""));
+        assertFalse(whiteList.contains("1.2.3"));
+        assertFalse(whiteList.contains("1.2.3.4.5"));
+        assertFalse(whiteList.contains("1..2.3"));
+        assertFalse(whiteList.contains("evil.com:1"));
+        assertFalse(whiteList.contains("example.com"));
+        assertFalse(whiteList.contains("::1%"));
+    }
+}
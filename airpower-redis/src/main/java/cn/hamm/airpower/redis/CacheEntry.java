@@ -0,0 +1,33 @@
+package cn.hamm.airpower.redis;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * <h1>注解缓存条目</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 记录缓存值的逻辑过期时间和加载耗时，用于提前刷新和过期旧值返回
+ */
+@Data
+@Accessors(chain = true)
+public class CacheEntry {
+    /**
+     * 缓存值
+     */
+    private Object value;
+
+    /**
+     * 逻辑过期时间
+     *
+     * @apiNote 毫秒时间戳
+     */
+    private Long expireTime;
+
+    /**
+     * 加载耗时
+     *
+     * @apiNote 单位毫秒
+     */
+    private Long loadCost;
+}
@@ -0,0 +1,383 @@
+package cn.hamm.airpower.redis;
+
+import cn.hamm.airpower.core.Json;
+import cn.hamm.airpower.core.RootModel;
+import cn.hamm.airpower.core.interfaces.IEntity;
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.cache.interceptor.KeyGenerator;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>缓存键生成器</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 生成规则为 {@code 类名.方法名#签名摘要:参数摘要}，参数按类型标记和长度前缀规范编码后计算
+ * {@code MurmurHash3} 128 位摘要，键长度固定且不会因参数拼接产生碰撞；
+ * 实体参数仅使用类型与 {@code ID} 参与编码；{@link Set} 和 {@link Map} 的元素按编码排序，相等的参数生成相同的键。
+ */
+public class CacheKeyGenerator implements KeyGenerator {
+    /**
+     * 无参数时的参数摘要
+     */
+    private static final String EMPTY_PARAMS = "_";
+
+    /**
+     * 编码缓冲区初始大小
+     */
+    private static final int BUFFER_SIZE = 256;
+
+    /**
+     * 编码缓冲区最大保留大小
+     */
+    private static final int BUFFER_MAX_RETAIN_SIZE = 64 * 1024;
+
+    /**
+     * 十六进制字符
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 类型标记：空值
+     */
+    private static final byte TAG_NULL = 0;
+
+    /**
+     * 类型标记：字符串
+     */
+    private static final byte TAG_STRING = 1;
+
+    /**
+     * 类型标记：整数
+     */
+    private static final byte TAG_LONG = 2;
+
+    /**
+     * 类型标记：浮点数
+     */
+    private static final byte TAG_DOUBLE = 3;
+
+    /**
+     * 类型标记：布尔值
+     */
+    private static final byte TAG_BOOLEAN = 4;
+
+    /**
+     * 类型标记：枚举
+     */
+    private static final byte TAG_ENUM = 5;
+
+    /**
+     * 类型标记：数组
+     */
+    private static final byte TAG_ARRAY = 6;
+
+    /**
+     * 类型标记：有序集合
+     */
+    private static final byte TAG_COLLECTION = 7;
+
+    /**
+     * 类型标记：映射，条目按编码排序
+     */
+    private static final byte TAG_MAP = 8;
+
+    /**
+     * 类型标记：带 {@code ID} 的实体
+     */
+    private static final byte TAG_ENTITY = 9;
+
+    /**
+     * 类型标记：模型
+     */
+    private static final byte TAG_MODEL = 10;
+
+    /**
+     * 类型标记：其他对象
+     */
+    private static final byte TAG_OBJECT = 11;
+
+    /**
+     * 类型标记：字符
+     */
+    private static final byte TAG_CHAR = 12;
+
+    /**
+     * 类型标记：其他数字
+     */
+    private static final byte TAG_NUMBER = 13;
+
+    /**
+     * 类型标记：无序集合，元素按编码排序
+     */
+    private static final byte TAG_SET = 14;
+
+    /**
+     * 线程内复用的编码缓冲区
+     */
+    private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * 方法前缀缓存
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, String>> prefixCache = new ConcurrentHashMap<>();
+
+    @Override
+    public @NotNull Object generate(@NotNull Object target, @NotNull Method method, Object @NotNull ... params) {
+        String prefix = getPrefix(target.getClass(), method);
+        if (params.length == 0) {
+            return prefix + EMPTY_PARAMS;
+        }
+        Encoder encoder = ENCODER.get();
+        try {
+            encoder.writeInt(params.length);
+            for (Object param : params) {
+                encoder.writeValue(param);
+            }
+            long[] hash = MurmurHash3.hash128(encoder.buffer, 0, encoder.position, MurmurHash3.DEFAULT_SEED);
+            return prefix + toHex(hash[0], hash[1]);
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    /**
+     * 获取方法的键前缀
+     *
+     * @param targetClass 目标类
+     * @param method      方法
+     * @return 键前缀
+     */
+    private String getPrefix(Class<?> targetClass, Method method) {
+        return prefixCache.computeIfAbsent(targetClass, clazz -> new ConcurrentHashMap<>())
+                .computeIfAbsent(method, m -> {
+                    // 重载方法通过参数签名的摘要区分
+                    String signature = Arrays.toString(m.getParameterTypes());
+                    return targetClass.getName() + "." + m.getName() + "#" + Integer.toHexString(signature.hashCode()) + ":";
+                });
+    }
+
+    /**
+     * 转为十六进制字符串
+     *
+     * @param high 高位
+     * @param low  低位
+     * @return 十六进制字符串
+     */
+    private static @NotNull String toHex(long high, long low) {
+        char[] chars = new char[32];
+        for (int i = 0; i < 16; i++) {
+            chars[i] = HEX[(int) (high >>> (60 - i * 4)) & 0xF];
+            chars[i + 16] = HEX[(int) (low >>> (60 - i * 4)) & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * <h2>参数规范编码器</h2>
+     */
+    private static class Encoder {
+        /**
+         * 缓冲区
+         */
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * 当前写入位置
+         */
+        private int position = 0;
+
+        /**
+         * 写入值
+         *
+         * @param value 值
+         */
+        private void writeValue(Object value) {
+            if (Objects.isNull(value)) {
+                writeByte(TAG_NULL);
+                return;
+            }
+            if (value instanceof String string) {
+                writeByte(TAG_STRING);
+                writeString(string);
+                return;
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writeByte(TAG_LONG);
+                writeLong(((Number) value).longValue());
+                return;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                writeByte(TAG_DOUBLE);
+                writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+                return;
+            }
+            if (value instanceof Number number) {
+                writeByte(TAG_NUMBER);
+                writeString(number.toString());
+                return;
+            }
+            if (value instanceof Boolean bool) {
+                writeByte(TAG_BOOLEAN);
+                writeByte((byte) (bool ? 1 : 0));
+                return;
+            }
+            if (value instanceof Character character) {
+                writeByte(TAG_CHAR);
+                writeInt(character);
+                return;
+            }
+            if (value instanceof Enum<?> enumValue) {
+                writeByte(TAG_ENUM);
+                writeString(enumValue.getDeclaringClass().getName());
+                writeString(enumValue.name());
+                return;
+            }
+            if (value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                writeByte(TAG_ARRAY);
+                writeInt(length);
+                for (int i = 0; i < length; i++) {
+                    writeValue(Array.get(value, i));
+                }
+                return;
+            }
+            if (value instanceof Set<?> set) {
+                writeByte(TAG_SET);
+                writeInt(set.size());
+                writeSorted(set, this::writeValue);
+                return;
+            }
+            if (value instanceof Collection<?> collection) {
+                writeByte(TAG_COLLECTION);
+                writeInt(collection.size());
+                collection.forEach(this::writeValue);
+                return;
+            }
+            if (value instanceof Map<?, ?> map) {
+                writeByte(TAG_MAP);
+                writeInt(map.size());
+                writeSorted(map.entrySet(), entry -> {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                });
+                return;
+            }
+            if (value instanceof IEntity<?> entity && Objects.nonNull(entity.getId())) {
+                writeByte(TAG_ENTITY);
+                writeString(value.getClass().getName());
+                writeLong(entity.getId());
+                return;
+            }
+            if (value instanceof RootModel<?>) {
+                writeByte(TAG_MODEL);
+                writeString(value.getClass().getName());
+                writeString(Json.toString(value));
+                return;
+            }
+            writeByte(TAG_OBJECT);
+            writeString(value.getClass().getName());
+            writeString(value.toString());
+        }
+
+        /**
+         * 按编码排序后写入元素
+         *
+         * @param items  元素
+         * @param writer 元素的编码方法
+         * @param <T>    元素类型
+         * @apiNote 相等的无序集合迭代顺序可能不同，逐个编码后按字节排序，保证编码结果与迭代顺序无关
+         */
+        private <T> void writeSorted(@NotNull Collection<T> items, @NotNull Consumer<T> writer) {
+            int start = position;
+            List<byte[]> encodedList = new ArrayList<>(items.size());
+            for (T item : items) {
+                writer.accept(item);
+                encodedList.add(Arrays.copyOfRange(buffer, start, position));
+                position = start;
+            }
+            encodedList.sort(Arrays::compareUnsigned);
+            for (byte[] encoded : encodedList) {
+                ensureCapacity(encoded.length);
+                System.arraycopy(encoded, 0, buffer, position, encoded.length);
+                position += encoded.length;
+            }
+        }
+
+        /**
+         * 写入字符串
+         *
+         * @param value 字符串
+         */
+        private void writeString(@NotNull String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        /**
+         * 写入长整数
+         *
+         * @param value 值
+         */
+        private void writeLong(long value) {
+            ensureCapacity(Long.BYTES);
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                buffer[position++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        /**
+         * 写入整数
+         *
+         * @param value 值
+         */
+        private void writeInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            for (int i = Integer.BYTES - 1; i >= 0; i--) {
+                buffer[position++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        /**
+         * 写入字节
+         *
+         * @param value 值
+         */
+        private void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[position++] = value;
+        }
+
+        /**
+         * 确保缓冲区容量
+         *
+         * @param length 需写入的长度
+         */
+        private void ensureCapacity(int length) {
+            if (position + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            }
+        }
+
+        /**
+         * 重置缓冲区
+         */
+        private void reset() {
+            position = 0;
+            if (buffer.length > BUFFER_MAX_RETAIN_SIZE) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package cn.hamm.airpower.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <h1>防击穿的注解缓存</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 包装 Redis 缓存，使用 {@code @Cacheable(sync = true)} 时：
+ * <ul>
+ *     <li>同一节点内相同 key 只有一个调用方加载，其余调用方等待结果</li>
+ *     <li>跨节点通过 Redis 短租约协调，未获得租约的节点短暂等待缓存写入</li>
+ *     <li>按加载耗时概率性提前刷新，避免热点 key 同时过期</li>
+ *     <li>配置了旧值返回时间后，过期的缓存返回旧值，由一个调用方刷新</li>
+ * </ul>
+ * 刷新在抽中的调用方自己的线程上执行，加载器可以使用调用方的请求上下文。
+ * 未开启 {@code sync} 的 {@code @Cacheable} 由 Spring 分别调用 {@link #get(Object)} 和 {@link #put(Object, Object)}，
+ * 只做逻辑过期判断，不合并并发的加载
+ */
+@Slf4j
+public class CoalescingCache implements Cache {
+    /**
+     * 加载租约前缀
+     */
+    private static final String LEASE_PREFIX = "CACHE_LOAD_";
+
+    /**
+     * 等待其他节点加载的首次轮询间隔
+     *
+     * @apiNote 单位毫秒，之后每次翻倍
+     */
+    private static final int WAIT_STEP_MIN = 10;
+
+    /**
+     * 等待其他节点加载的最大轮询间隔
+     *
+     * @apiNote 单位毫秒
+     */
+    private static final int WAIT_STEP_MAX = 100;
+
+    /**
+     * 被包装的缓存
+     */
+    private final Cache delegate;
+
+    /**
+     * Redis 配置
+     */
+    private final RedisConfig redisConfig;
+
+    /**
+     * Redis 助手
+     */
+    private final RedisHelper redisHelper;
+
+    /**
+     * 加载中的任务
+     */
+    private final ConcurrentMap<Object, CompletableFuture<Object>> loadingMap = new ConcurrentHashMap<>();
+
+    public CoalescingCache(Cache delegate, RedisConfig redisConfig, RedisHelper redisHelper) {
+        this.delegate = delegate;
+        this.redisConfig = redisConfig;
+        this.redisHelper = redisHelper;
+    }
+
+    @Override
+    public @NotNull String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public @NotNull Object getNativeCache() {
+        return delegate.getNativeCache();
+    }
+
+    @Override
+    public @Nullable ValueWrapper get(@NotNull Object key) {
+        CacheEntry entry = getEntry(key);
+        if (Objects.isNull(entry) || isExpired(entry)) {
+            return null;
+        }
+        return new SimpleValueWrapper(entry.getValue());
+    }
+
+    @Override
+    public <T> @Nullable T get(@NotNull Object key, @Nullable Class<T> type) {
+        ValueWrapper valueWrapper = get(key);
+        Object value = Objects.isNull(valueWrapper) ? null : valueWrapper.get();
+        if (Objects.nonNull(value) && Objects.nonNull(type) && !type.isInstance(value)) {
+            throw new IllegalStateException("缓存的值不是 " + type.getName() + " 类型: " + value);
+        }
+        //noinspection unchecked
+        return (T) value;
+    }
+
+    @Override
+    public <T> @Nullable T get(@NotNull Object key, @NotNull Callable<T> valueLoader) {
+        CacheEntry entry = getEntry(key);
+        if (Objects.nonNull(entry)) {
+            if ((!isExpired(entry) && shouldRefreshEarly(entry)) || (isExpired(entry) && isStaleUsable(entry))) {
+                //noinspection unchecked
+                return (T) refresh(key, valueLoader, entry);
+            }
+            if (!isExpired(entry)) {
+                //noinspection unchecked
+                return (T) entry.getValue();
+            }
+        }
+        try {
+            //noinspection unchecked
+            return (T) load(key, valueLoader, true).join();
+        } catch (CompletionException exception) {
+            throw new ValueRetrievalException(key, valueLoader, exception.getCause());
+        }
+    }
+
+    @Override
+    public void put(@NotNull Object key, @Nullable Object value) {
+        if (Objects.isNull(value)) {
+            delegate.put(key, null);
+            return;
+        }
+        delegate.put(key, createEntry(value, 0));
+    }
+
+    @Override
+    public @Nullable ValueWrapper putIfAbsent(@NotNull Object key, @Nullable Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, Objects.isNull(value) ? null : createEntry(value, 0));
+        if (Objects.isNull(existing)) {
+            return null;
+        }
+        Object existingValue = existing.get();
+        if (existingValue instanceof CacheEntry entry) {
+            return new SimpleValueWrapper(entry.getValue());
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(@NotNull Object key) {
+        delegate.evict(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(@NotNull Object key) {
+        return delegate.evictIfPresent(key);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public boolean invalidate() {
+        return delegate.invalidate();
+    }
+
+    /**
+     * 读取缓存条目
+     *
+     * @param key 缓存的 key
+     * @return 缓存条目
+     */
+    private @Nullable CacheEntry getEntry(@NotNull Object key) {
+        ValueWrapper valueWrapper = delegate.get(key);
+        if (Objects.isNull(valueWrapper) || Objects.isNull(valueWrapper.get())) {
+            return null;
+        }
+        Object value = valueWrapper.get();
+        if (value instanceof CacheEntry entry) {
+            return entry;
+        }
+        // 兼容升级前写入的缓存
+        return new CacheEntry().setValue(value).setExpireTime(Long.MAX_VALUE).setLoadCost(0L);
+    }
+
+    /**
+     * 创建缓存条目
+     *
+     * @param value    缓存值
+     * @param loadCost 加载耗时
+     * @return 缓存条目
+     */
+    private @NotNull CacheEntry createEntry(Object value, long loadCost) {
+        return new CacheEntry()
+                .setValue(value)
+                .setExpireTime(System.currentTimeMillis() + redisConfig.getCacheableExpireSecond() * 1000L)
+                .setLoadCost(loadCost);
+    }
+
+    /**
+     * 是否已逻辑过期
+     *
+     * @param entry 缓存条目
+     * @return 是否已过期
+     */
+    private boolean isExpired(@NotNull CacheEntry entry) {
+        return System.currentTimeMillis() >= entry.getExpireTime();
+    }
+
+    /**
+     * 过期的旧值是否还能返回
+     *
+     * @param entry 缓存条目
+     * @return 是否能返回
+     */
+    private boolean isStaleUsable(@NotNull CacheEntry entry) {
+        long staleMillis = redisConfig.getCacheableStaleSecond() * 1000L;
+        return staleMillis > 0 && System.currentTimeMillis() < entry.getExpireTime() + staleMillis;
+    }
+
+    /**
+     * 是否需要提前刷新
+     *
+     * @param entry 缓存条目
+     * @return 是否提前刷新
+     * @apiNote 加载越慢、越接近过期时间，提前刷新的概率越大
+     */
+    private boolean shouldRefreshEarly(@NotNull CacheEntry entry) {
+        double beta = redisConfig.getCacheableEarlyExpireBeta();
+        long loadCost = Objects.requireNonNullElse(entry.getLoadCost(), 0L);
+        if (beta <= 0 || loadCost <= 0) {
+            return false;
+        }
+        double random = 1 - ThreadLocalRandom.current().nextDouble();
+        return System.currentTimeMillis() - loadCost * beta * Math.log(random) >= entry.getExpireTime();
+    }
+
+    /**
+     * 刷新缓存
+     *
+     * @param key         缓存的 key
+     * @param valueLoader 加载器
+     * @param entry       当前的缓存条目
+     * @return 刷新后的值，已有其他调用方在刷新或刷新失败时返回当前的值
+     * @apiNote 在调用方的线程上加载，保留调用方的请求上下文；同时到达的其他调用方不等待，直接返回当前的值
+     */
+    private @Nullable Object refresh(@NotNull Object key, @NotNull Callable<?> valueLoader, @NotNull CacheEntry entry) {
+        if (loadingMap.containsKey(key)) {
+            return entry.getValue();
+        }
+        try {
+            return load(key, valueLoader, false).join();
+        } catch (CompletionException exception) {
+            log.warn("刷新缓存失败，返回旧值，key= {}, {}", key, exception.getCause().getMessage());
+            return entry.getValue();
+        }
+    }
+
+    /**
+     * 加载并写入缓存
+     *
+     * @param key         缓存的 key
+     * @param valueLoader 加载器
+     * @param wait        未获得租约时是否等待其他节点的加载结果
+     * @return 加载结果
+     * @apiNote 同一个 key 在本节点同时只会有一个加载任务
+     */
+    private CompletableFuture<Object> load(@NotNull Object key, @NotNull Callable<?> valueLoader, boolean wait) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = loadingMap.putIfAbsent(key, future);
+        if (Objects.nonNull(loading)) {
+            return loading;
+        }
+        try {
+            future.complete(loadWithLease(key, valueLoader, wait));
+        } catch (Throwable throwable) {
+            future.completeExceptionally(throwable);
+        } finally {
+            loadingMap.remove(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * 获取跨节点租约后加载
+     *
+     * @param key         缓存的 key
+     * @param valueLoader 加载器
+     * @param wait        未获得租约时是否等待其他节点的加载结果
+     * @return 加载结果
+     */
+    private @Nullable Object loadWithLease(@NotNull Object key, @NotNull Callable<?> valueLoader, boolean wait) throws Exception {
+        final int leaseMillis = redisConfig.getCacheableLoadLeaseMillis();
+        RedisHelper.Lock lease = null;
+        if (leaseMillis > 0) {
+            boolean leaseFailed = false;
+            try {
+                lease = redisHelper.tryLock(LEASE_PREFIX + getName() + ":" + key, leaseMillis);
+            } catch (Exception exception) {
+                leaseFailed = true;
+                log.warn("获取缓存加载租约失败，将直接加载, {}", exception.getMessage());
+            }
+            if (Objects.isNull(lease) && !leaseFailed) {
+                CacheEntry entry = getEntry(key);
+                if (!wait && Objects.nonNull(entry)) {
+                    // 其他节点正在刷新，直接使用已有的值
+                    return entry.getValue();
+                }
+                entry = waitForOtherNode(key);
+                if (Objects.nonNull(entry)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            Object value = valueLoader.call();
+            if (Objects.nonNull(value)) {
+                delegate.put(key, createEntry(value, System.currentTimeMillis() - startTime));
+            }
+            return value;
+        } finally {
+            if (Objects.nonNull(lease)) {
+                redisHelper.releaseLock(lease);
+            }
+        }
+    }
+
+    /**
+     * 等待其他节点写入缓存
+     *
+     * @param key 缓存的 key
+     * @return 其他节点写入的缓存条目，超时返回 {@code null}
+     * @apiNote 阻塞调用线程，最长等待 {@link RedisConfig#getCacheableLoadWaitMillis()}，轮询间隔从短到长递增，
+     * 其他节点很快写入时调用方也能很快返回
+     */
+    private @Nullable CacheEntry waitForOtherNode(@NotNull Object key) {
+        if (redisConfig.getCacheableLoadWaitMillis() <= 0) {
+            return null;
+        }
+        long deadline = System.currentTimeMillis() + redisConfig.getCacheableLoadWaitMillis();
+        int step = WAIT_STEP_MIN;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                //noinspection BusyWait
+                Thread.sleep(Math.min(step, remaining));
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            CacheEntry entry = getEntry(key);
+            if (Objects.nonNull(entry) && !isExpired(entry)) {
+                return entry;
+            }
+            step = Math.min(step * 2, WAIT_STEP_MAX);
+        }
+        log.warn("等待其他节点加载缓存超时，将直接加载，key= {}", key);
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package cn.hamm.airpower.redis;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+/**
+ * <h1>防击穿的 Redis 缓存管理器</h1>
+ *
+ * @author Hamm.cn
+ * @see CoalescingCache
+ */
+public class CoalescingRedisCacheManager extends RedisCacheManager {
+    /**
+     * Redis 配置
+     */
+    private final RedisConfig redisConfig;
+
+    /**
+     * Redis 助手
+     */
+    private final RedisHelper redisHelper;
+
+    public CoalescingRedisCacheManager(RedisCacheWriter cacheWriter, RedisCacheConfiguration defaultCacheConfiguration,
+                                       RedisConfig redisConfig, RedisHelper redisHelper) {
+        super(cacheWriter, defaultCacheConfiguration);
+        this.redisConfig = redisConfig;
+        this.redisHelper = redisHelper;
+    }
+
+    @Override
+    protected @NotNull Cache decorateCache(@NotNull Cache cache) {
+        return new CoalescingCache(super.decorateCache(cache), redisConfig, redisHelper);
+    }
+}
@@ -35,4 +35,39 @@ public class RedisConfig {
      * @apiNote 单位毫秒
      */
     private Integer lockTimeout = 60 * 1000;
+
+    /**
+     * 注解缓存的有效时间
+     *
+     * @apiNote 单位秒
+     */
+    private int cacheableExpireSecond = 10 * DateTimeUtil.SECOND_PER_MINUTE;
+
+    /**
+     * 注解缓存过期后仍可返回旧值的时间
+     *
+     * @apiNote 单位秒，期间其他调用方直接返回旧值，由一个调用方在自己的线程上刷新，{@code 0} 为不返回旧值
+     */
+    private int cacheableStaleSecond = 0;
+
+    /**
+     * 注解缓存提前过期系数
+     *
+     * @apiNote 按加载耗时概率性提前刷新，值越大越容易提前刷新，{@code 0} 为关闭
+     */
+    private double cacheableEarlyExpireBeta = 1.0;
+
+    /**
+     * 注解缓存跨节点加载租约时间
+     *
+     * @apiNote 单位毫秒，只对 {@code @Cacheable(sync = true)} 生效
+     */
+    private int cacheableLoadLeaseMillis = 3000;
+
+    /**
+     * 注解缓存等待其他节点加载的最长时间
+     *
+     * @apiNote 单位毫秒，未获得租约的节点阻塞调用线程等待其他节点写入缓存，超时后自行加载，{@code 0} 为不等待
+     */
+    private int cacheableLoadWaitMillis = 500;
 }
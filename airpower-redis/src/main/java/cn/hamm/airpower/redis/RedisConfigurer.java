@@ -10,14 +10,13 @@ import org.springframework.cache.interceptor.SimpleCacheResolver;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
-import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.time.Duration;
-import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -34,14 +33,32 @@ public class RedisConfigurer implements CachingConfigurer {
     @Resource
     private RedisConnectionFactory redisConnectionFactory;
 
+    /**
+     * Redis 配置
+     */
+    @Resource
+    private RedisConfig redisConfig;
+
+    /**
+     * Redis 助手
+     */
+    @Resource
+    private RedisHelper redisHelper;
+
     /**
      * 缓存管理器
+     *
+     * @apiNote 缓存在 Redis 中保留有效时间与旧值返回时间之和，逻辑过期由 {@link CoalescingCache} 判断；
+     * 防击穿只对 {@code @Cacheable(sync = true)} 生效，未开启 {@code sync} 的注解由 Spring 分别读写缓存，
+     * 缓存失效时并发的调用方会各自加载
      */
     @Bean
     @Override
     public CacheManager cacheManager() {
         RedisCacheConfiguration redisCacheConfiguration = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(Duration.ofMinutes(10))
+                .entryTtl(Duration.ofSeconds(
+                        redisConfig.getCacheableExpireSecond() + redisConfig.getCacheableStaleSecond()
+                ))
                 .disableCachingNullValues()
                 .serializeKeysWith(
                         RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer())
@@ -51,9 +68,12 @@ public class RedisConfigurer implements CachingConfigurer {
                                 new GenericJackson2JsonRedisSerializer()
                         )
                 );
-        return RedisCacheManager.builder(redisConnectionFactory)
-                .cacheDefaults(redisCacheConfiguration)
-                .build();
+        return new CoalescingRedisCacheManager(
+                RedisCacheWriter.nonLockingRedisCacheWriter(redisConnectionFactory),
+                redisCacheConfiguration,
+                redisConfig,
+                redisHelper
+        );
     }
 
     /**
@@ -62,13 +82,7 @@ public class RedisConfigurer implements CachingConfigurer {
     @Bean
     @Override
     public KeyGenerator keyGenerator() {
-        return (target, method, params) -> {
-            StringBuilder builder = new StringBuilder()
-                    .append(target.getClass().getName())
-                    .append(method.getName());
-            Arrays.stream(params).map(Object::toString).forEach(builder::append);
-            return builder.toString();
-        };
+        return new CacheKeyGenerator();
     }
 
     /**
@@ -12,14 +12,20 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Objects;
-import java.util.Set;
-import java.util.UUID;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static cn.hamm.airpower.exception.Errors.REDIS_ERROR;
@@ -38,6 +44,26 @@ public class RedisHelper {
      */
     private static final String GLOBAL_LOCK_KEY = "GLOBAL_LOCK";
 
+    /**
+     * 自增并在首次创建时设置过期时间的脚本
+     */
+    private static final RedisScript<Long> INCREMENT_WITH_EXPIRE_SCRIPT = new DefaultRedisScript<>(
+            "local value = redis.call('INCRBY', KEYS[1], ARGV[1]) " +
+                    "if value == tonumber(ARGV[1]) then redis.call('EXPIRE', KEYS[1], ARGV[2]) end " +
+                    "return value",
+            Long.class
+    );
+
+    /**
+     * 成员不存在时加入集合的脚本
+     */
+    private static final RedisScript<Long> SET_ADD_IF_ABSENT_SCRIPT = new DefaultRedisScript<>(
+            "local added = redis.call('SADD', KEYS[1], ARGV[1]) " +
+                    "if added == 1 then redis.call('EXPIRE', KEYS[1], ARGV[2]) end " +
+                    "return added",
+            Long.class
+    );
+
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
@@ -89,6 +115,23 @@ public class RedisHelper {
         return getRedisTemplate().opsForValue().increment(getKey(key), delta);
     }
 
+    /**
+     * 自增并在首次创建时设置过期时间
+     *
+     * @param key    自增 key
+     * @param delta  增量
+     * @param second 缓存时间(秒)
+     * @return 值
+     * @apiNote 通过 Lua 脚本在单次往返中原子执行
+     */
+    public final long increment(String key, long delta, long second) {
+        Long value = getRedisTemplate().execute(
+                INCREMENT_WITH_EXPIRE_SCRIPT, List.of(getKey(key)), String.valueOf(delta), String.valueOf(second)
+        );
+        REDIS_ERROR.whenNull(value, "自增失败");
+        return value;
+    }
+
     /**
      * 自增 {@code 1}
      *
@@ -157,14 +200,13 @@ public class RedisHelper {
      * @return 锁的 key
      */
     public final @NotNull Lock lock(String key, Integer timeout) {
-        String value = UUID.randomUUID().toString();
         int currentIndex = 0;
         int step = 50;
         while (true) {
             currentIndex++;
-            Boolean lock = getRedisTemplate().opsForValue().setIfAbsent(getKey(key), value, timeout, TimeUnit.MILLISECONDS);
-            if (Boolean.TRUE.equals(lock)) {
-                return new Lock().setKey(key).setValue(value);
+            Lock lock = tryLock(key, timeout);
+            if (Objects.nonNull(lock)) {
+                return lock;
             }
             if (currentIndex * step >= timeout) {
                 log.error("获取锁超时，key= {}", key);
@@ -180,6 +222,23 @@ public class RedisHelper {
         }
     }
 
+    /**
+     * 尝试获取锁
+     *
+     * @param key     锁的 key
+     * @param timeout 锁超时时间(毫秒)
+     * @return 锁，获取失败时返回 {@code null}
+     * @apiNote 不会等待，锁已被占用时立即返回
+     */
+    public final @Nullable Lock tryLock(String key, Integer timeout) {
+        String value = UUID.randomUUID().toString();
+        Boolean lock = getRedisTemplate().opsForValue().setIfAbsent(getKey(key), value, timeout, TimeUnit.MILLISECONDS);
+        if (Boolean.TRUE.equals(lock)) {
+            return new Lock().setKey(key).setValue(value);
+        }
+        return null;
+    }
+
     /**
      * 获取缓存的 key
      *
@@ -392,6 +451,250 @@ public class RedisHelper {
         }
     }
 
+    /**
+     * 缓存不存在时放入并设置时间
+     *
+     * @param key    缓存的 Key
+     * @param value  缓存的值
+     * @param second 缓存时间(秒)
+     * @return {@code true} 放入成功; {@code false} 缓存已存在
+     * @apiNote 单次往返的原子操作
+     */
+    public final boolean setIfAbsent(String key, Object value, long second) {
+        try {
+            return Boolean.TRUE.equals(getRedisTemplate().opsForValue()
+                    .setIfAbsent(getKey(key), value.toString(), second, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 成员不存在时加入集合并设置集合时间
+     *
+     * @param key    集合的 Key
+     * @param member 成员
+     * @param second 集合的缓存时间(秒)
+     * @return {@code true} 加入成功; {@code false} 成员已存在
+     * @apiNote 通过 Lua 脚本在单次往返中原子执行
+     */
+    public final boolean addToSetIfAbsent(String key, String member, long second) {
+        try {
+            Long added = getRedisTemplate().execute(
+                    SET_ADD_IF_ABSENT_SCRIPT, List.of(getKey(key)), member, String.valueOf(second)
+            );
+            return Objects.nonNull(added) && added == 1;
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 批量设置哈希的字段并设置哈希的缓存时间
+     *
+     * @param keys   哈希的 Key 列表
+     * @param field  字段
+     * @param value  字段的值
+     * @param second 哈希的缓存时间(秒)
+     * @apiNote 所有哈希在一次管道往返中写入
+     */
+    public final void setHashField(@NotNull Collection<String> keys, String field, String value, long second) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        final byte[] fieldBytes = field.getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        try {
+            getRedisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    byte[] keyBytes = getKey(key).getBytes(StandardCharsets.UTF_8);
+                    connection.hashCommands().hSet(keyBytes, fieldBytes, valueBytes);
+                    connection.keyCommands().expire(keyBytes, second);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 删除哈希的字段
+     *
+     * @param key   哈希的 Key
+     * @param field 字段
+     */
+    public final void deleteHashField(String key, String field) {
+        try {
+            getRedisTemplate().opsForHash().delete(getKey(key), field);
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 批量获取哈希
+     *
+     * @param keys 哈希的 Key 列表
+     * @return 与 Key 列表一一对应的哈希，不存在的哈希为空
+     * @apiNote 所有哈希在一次管道往返中读取
+     */
+    public final @NotNull List<Map<String, String>> getHashes(@NotNull List<String> keys) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        try {
+            List<Object> results = getRedisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.hashCommands().hGetAll(getKey(key).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            List<Map<String, String>> hashes = new ArrayList<>(results.size());
+            for (Object result : results) {
+                Map<String, String> hash = new HashMap<>();
+                if (result instanceof Map<?, ?> map) {
+                    map.forEach((field, value) -> hash.put(String.valueOf(field), String.valueOf(value)));
+                }
+                hashes.add(hash);
+            }
+            return hashes;
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 追加消息到 Stream 并设置 Stream 的缓存时间
+     *
+     * @param key       Stream 的 Key
+     * @param fields    消息字段
+     * @param maxLength 最多保留的消息数，超出时近似裁剪最早的消息
+     * @param second    Stream 的缓存时间(秒)，{@code 0} 为不过期
+     * @apiNote {@code XADD MAXLEN ~} 和 {@code EXPIRE} 在一次管道往返中执行
+     */
+    public final void addToStream(String key, @NotNull Map<String, String> fields, long maxLength, long second) {
+        final byte[] keyBytes = getKey(key).getBytes(StandardCharsets.UTF_8);
+        Map<byte[], byte[]> rawFields = new LinkedHashMap<>();
+        fields.forEach((field, value) -> rawFields.put(
+                field.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8)
+        ));
+        try {
+            getRedisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xAdd(
+                        StreamRecords.rawBytes(rawFields).withStreamKey(keyBytes),
+                        RedisStreamCommands.XAddOptions.maxlen(maxLength).approximateTrimming(true)
+                );
+                if (second > 0) {
+                    connection.keyCommands().expire(keyBytes, second);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 阻塞读取 Stream 中指定消息之后的消息
+     *
+     * @param key         Stream 的 Key
+     * @param lastId      最后读取的消息 ID
+     * @param count       最多读取的消息数
+     * @param blockMillis 没有消息时最多阻塞的毫秒数
+     * @return 消息 ID 到消息字段的有序映射，超时返回空
+     */
+    public final @NotNull LinkedHashMap<String, Map<String, String>> readStream(
+            String key, String lastId, int count, long blockMillis) {
+        try {
+            List<ByteRecord> records = getRedisTemplate().execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xRead(
+                            StreamReadOptions.empty().count(count).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(getKey(key).getBytes(StandardCharsets.UTF_8), ReadOffset.from(lastId))
+                    )
+            );
+            LinkedHashMap<String, Map<String, String>> messages = new LinkedHashMap<>();
+            if (Objects.nonNull(records)) {
+                records.forEach(record -> messages.put(record.getId().getValue(), toStringMap(record)));
+            }
+            return messages;
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 获取 Stream 中最早的消息 ID
+     *
+     * @param key Stream 的 Key
+     * @return 消息 ID，Stream 为空时返回 {@code null}
+     */
+    public final @Nullable String getStreamFirstId(String key) {
+        try {
+            List<ByteRecord> records = getRedisTemplate().execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xRange(
+                            getKey(key).getBytes(StandardCharsets.UTF_8), Range.unbounded(), Limit.limit().count(1)
+                    )
+            );
+            if (Objects.isNull(records) || records.isEmpty()) {
+                return null;
+            }
+            return records.get(0).getId().getValue();
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 获取 Redis 服务器的当前时间
+     *
+     * @return 毫秒时间戳
+     * @apiNote 与 Stream 自动生成的消息 ID 使用同一个时钟，不受节点时钟偏差影响
+     */
+    public final long getServerTime() {
+        try {
+            Long time = getRedisTemplate().execute((RedisCallback<Long>) connection ->
+                    connection.serverCommands().time()
+            );
+            REDIS_ERROR.whenNull(time, "获取服务器时间失败");
+            return time;
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
+    /**
+     * 获取 Stream 中的所有消息
+     *
+     * @param key Stream 的 Key
+     * @return 按时间顺序排列的消息字段
+     */
+    public final @NotNull List<Map<String, String>> getStream(String key) {
+        try {
+            List<ByteRecord> records = getRedisTemplate().execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xRange(getKey(key).getBytes(StandardCharsets.UTF_8), Range.unbounded())
+            );
+            if (Objects.isNull(records)) {
+                return List.of();
+            }
+            return records.stream().map(this::toStringMap).toList();
+        } catch (Exception e) {
+            log.error(REDIS_ERROR.getMessage(), e);
+            throw new ServiceException(REDIS_ERROR);
+        }
+    }
+
     /**
      * 发布到 {@code channel} 的消息
      *
@@ -404,6 +707,20 @@ public class RedisHelper {
         getRedisTemplate().convertAndSend(channel, message);
     }
 
+    /**
+     * 转换 Stream 消息的字段
+     *
+     * @param record 消息
+     * @return 字段
+     */
+    private @NotNull Map<String, String> toStringMap(@NotNull ByteRecord record) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((field, value) -> fields.put(
+                new String(field, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8)
+        ));
+        return fields;
+    }
+
     /**
      * 获取缓存 <b>模型</b> 的 cacheKey
      *
@@ -0,0 +1,91 @@
+package cn.hamm.airpower.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * <h1>缓存键生成器测试</h1>
+ *
+ * @author Hamm.cn
+ */
+class CacheKeyGeneratorTest {
+    private final CacheKeyGenerator generator = new CacheKeyGenerator();
+
+    private final Service service = new Service();
+
+    @Test
+    void sameParamsGenerateSameKey() throws Exception {
+        Method method = Service.class.getMethod("find", String.class, String.class);
+        assertEquals(generator.generate(service, method, "a", "b"), generator.generate(service, method, "a", "b"));
+    }
+
+    @Test
+    void concatenatedStringsDoNotCollide() throws Exception {
+        Method method = Service.class.getMethod("find", String.class, String.class);
+        assertNotEquals(generator.generate(service, method, "ab", "c"), generator.generate(service, method, "a", "bc"));
+        assertNotEquals(generator.generate(service, method, "1", null), generator.generate(service, method, null, "1"));
+    }
+
+    @Test
+    void numbersAndStringsAreDistinguished() throws Exception {
+        Method method = Service.class.getMethod("find", Object.class);
+        assertNotEquals(generator.generate(service, method, 1L), generator.generate(service, method, "1"));
+        assertEquals(generator.generate(service, method, 1), generator.generate(service, method, 1L));
+    }
+
+    @Test
+    void overloadedMethodsUseDifferentPrefixes() throws Exception {
+        Method single = Service.class.getMethod("find", Object.class);
+        Method pair = Service.class.getMethod("find", String.class, String.class);
+        String singleKey = generator.generate(service, single, "a").toString();
+        String pairKey = generator.generate(service, pair, "a", null).toString();
+        assertNotEquals(singleKey.substring(0, singleKey.indexOf(':')), pairKey.substring(0, pairKey.indexOf(':')));
+        assertTrue(singleKey.startsWith(Service.class.getName() + ".find#"));
+    }
+
+    @Test
+    void equalMapsGenerateSameKey() throws Exception {
+        Method method = Service.class.getMethod("find", Object.class);
+        Map<String, Integer> first = new LinkedHashMap<>();
+        first.put("a", 1);
+        first.put("b", 2);
+        Map<String, Integer> second = new LinkedHashMap<>();
+        second.put("b", 2);
+        second.put("a", 1);
+        assertEquals(generator.generate(service, method, first), generator.generate(service, method, second));
+        second.put("a", 3);
+        assertNotEquals(generator.generate(service, method, first), generator.generate(service, method, second));
+    }
+
+    @Test
+    void equalSetsGenerateSameKey() throws Exception {
+        Method method = Service.class.getMethod("find", Object.class);
+        Set<String> first = new LinkedHashSet<>(List.of("a", "b", "c"));
+        Set<String> second = new LinkedHashSet<>(List.of("c", "a", "b"));
+        assertEquals(generator.generate(service, method, first), generator.generate(service, method, second));
+    }
+
+    @Test
+    void listOrderIsKept() throws Exception {
+        Method method = Service.class.getMethod("find", Object.class);
+        assertNotEquals(
+                generator.generate(service, method, List.of("a", "b")),
+                generator.generate(service, method, List.of("b", "a"))
+        );
+    }
+
+    @SuppressWarnings("unused")
+    public static class Service {
+        public Object find(Object value) {
+            return value;
+        }
+
+        public Object find(String first, String second) {
+            return first + second;
+        }
+    }
+}
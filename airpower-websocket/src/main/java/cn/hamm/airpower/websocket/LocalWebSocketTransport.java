@@ -0,0 +1,69 @@
+package cn.hamm.airpower.websocket;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>进程内传输</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 发布的事件直接交给本节点的路由表分发，不经过网络，适用于单节点部署和集成测试
+ */
+@Component
+public class LocalWebSocketTransport implements WebSocketTransport {
+    /**
+     * 频道监听
+     */
+    private final ConcurrentMap<String, BiConsumer<String, byte[]>> listenerMap = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅的通配频道
+     */
+    private final Set<String> patternSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 通配监听
+     */
+    private volatile BiConsumer<String, byte[]> patternListener;
+
+    @Override
+    public void subscribe(String channel, BiConsumer<String, byte[]> listener) {
+        listenerMap.putIfAbsent(channel, listener);
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        listenerMap.remove(channel);
+    }
+
+    @Override
+    public void subscribePattern(String pattern, BiConsumer<String, byte[]> listener) {
+        patternListener = listener;
+        patternSet.add(pattern);
+    }
+
+    @Override
+    public void unsubscribePattern(String pattern) {
+        patternSet.remove(pattern);
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        BiConsumer<String, byte[]> listener = listenerMap.get(channel);
+        if (Objects.isNull(listener) && !patternSet.isEmpty()) {
+            // 没有按频道订阅时交给通配监听，由路由的前缀树匹配
+            listener = patternListener;
+        }
+        if (Objects.nonNull(listener)) {
+            // 分发只入队到会话的发送队列，不会阻塞发布方
+            listener.accept(channel, message.getBytes(UTF_8));
+        }
+    }
+}
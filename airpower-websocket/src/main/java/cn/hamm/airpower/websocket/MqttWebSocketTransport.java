@@ -0,0 +1,416 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.exception.ServiceException;
+import cn.hamm.airpower.mqtt.MqttHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.*;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import static cn.hamm.airpower.exception.Errors.PARAM_INVALID;
+
+/**
+ * <h1>MQTT 传输</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个节点共享一个长连接的 MQTT 客户端，断线重连后自动恢复订阅。
+ * 默认频道原样作为主题；开启 {@link WebSocketConfig#isMqttTopicLevel()} 后频道中的 {@code .} 映射为主题层级 {@code /}，
+ * 通配分段映射为 {@code +}，此时才支持通配频道。
+ * Broker 上的订阅互不重叠：相互重叠的通配频道合并为一个更宽的过滤器，被过滤器覆盖的频道不再单独订阅，
+ * 每条消息只收到一份，不依赖 Broker 对重叠订阅是否重复投递
+ */
+@Slf4j
+@Component
+public class MqttWebSocketTransport implements WebSocketTransport, DisposableBean {
+    /**
+     * 客户端 ID 前缀
+     */
+    private static final String CLIENT_ID_PREFIX = "airpower-websocket-";
+
+    /**
+     * 主题层级分隔符
+     */
+    private static final String TOPIC_SEPARATOR = "/";
+
+    /**
+     * 单层通配符
+     */
+    private static final String TOPIC_WILDCARD = "+";
+
+    /**
+     * 主题监听
+     */
+    private final ConcurrentMap<String, BiConsumer<String, byte[]>> listenerMap = new ConcurrentHashMap<>();
+
+    /**
+     * 通配主题监听
+     */
+    private final ConcurrentMap<String, BiConsumer<String, byte[]>> patternListenerMap = new ConcurrentHashMap<>();
+
+    /**
+     * Broker 上单独订阅的主题，只在持有本对象锁时访问
+     */
+    private final Set<String> topicSet = new HashSet<>();
+
+    /**
+     * Broker 上订阅的通配过滤器，只在持有本对象锁时访问
+     */
+    private final Set<String> filterSet = new HashSet<>();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private MqttHelper mqttHelper;
+
+    /**
+     * 共享的客户端
+     */
+    private volatile MqttClient client;
+
+    /**
+     * 两个过滤器是否可能匹配同一个主题
+     *
+     * @param filter      过滤器层级
+     * @param otherFilter 另一个过滤器层级
+     * @return 是否重叠
+     */
+    private static boolean isOverlapped(String @NotNull [] filter, String @NotNull [] otherFilter) {
+        if (filter.length != otherFilter.length) {
+            return false;
+        }
+        for (int i = 0; i < filter.length; i++) {
+            if (!filter[i].equals(otherFilter[i])
+                    && !TOPIC_WILDCARD.equals(filter[i]) && !TOPIC_WILDCARD.equals(otherFilter[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 合并为同时覆盖两个过滤器的过滤器
+     *
+     * @param filter      过滤器层级
+     * @param otherFilter 另一个过滤器层级
+     * @return 不相同的层级替换为通配符的过滤器层级
+     */
+    private static String @NotNull [] merge(String @NotNull [] filter, String @NotNull [] otherFilter) {
+        String[] merged = new String[filter.length];
+        for (int i = 0; i < filter.length; i++) {
+            merged[i] = filter[i].equals(otherFilter[i]) ? filter[i] : TOPIC_WILDCARD;
+        }
+        return merged;
+    }
+
+    /**
+     * 主题是否被过滤器覆盖
+     *
+     * @param filters 过滤器
+     * @param topic   主题
+     * @return 是否覆盖
+     */
+    private static boolean isCovered(@NotNull Collection<String> filters, String topic) {
+        return filters.stream().anyMatch(filter -> MqttTopic.isMatched(filter, topic));
+    }
+
+    @Override
+    public synchronized void subscribe(String channel, BiConsumer<String, byte[]> listener) {
+        if (listenerMap.containsKey(channel)) {
+            return;
+        }
+        String topic = toTopic(channel);
+        // 已被通配过滤器覆盖的频道不再单独订阅，否则同一条消息可能收到两份
+        if (!isCovered(filterSet, topic)) {
+            log.info("MQTT 开始订阅频道: {}", channel);
+            subscribeBroker(topic);
+            topicSet.add(topic);
+        }
+        listenerMap.put(channel, listener);
+    }
+
+    @Override
+    public synchronized void unsubscribe(String channel) {
+        if (Objects.isNull(listenerMap.remove(channel))) {
+            return;
+        }
+        String topic = toTopic(channel);
+        if (topicSet.contains(topic)) {
+            log.info("MQTT取消订阅频道: {}", channel);
+            unsubscribeBroker(topic, topicSet);
+        }
+    }
+
+    @Override
+    public synchronized void subscribePattern(String pattern, BiConsumer<String, byte[]> listener) {
+        if (!webSocketConfig.isMqttTopicLevel()) {
+            throw new ServiceException("MQTT 传输需要开启 airpower.websocket.mqtt-topic-level 才支持通配频道");
+        }
+        if (patternListenerMap.containsKey(pattern)) {
+            return;
+        }
+        log.info("MQTT 开始订阅通配频道: {}", pattern);
+        patternListenerMap.put(pattern, listener);
+        try {
+            updateSubscriptions();
+        } catch (ServiceException exception) {
+            patternListenerMap.remove(pattern);
+            try {
+                updateSubscriptions();
+            } catch (ServiceException ignored) {
+                // 已记录日志，下次订阅变化时再次调整
+            }
+            throw new ServiceException("订阅 MQTT 通配频道失败，" + exception.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribePattern(String pattern) {
+        if (Objects.isNull(patternListenerMap.remove(pattern))) {
+            return;
+        }
+        log.info("MQTT取消订阅通配频道: {}", pattern);
+        updateSubscriptions();
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        try {
+            mqttHelper.publish(toTopic(channel), message);
+        } catch (MqttException e) {
+            log.error("发布消息失败", e);
+            throw new ServiceException("发布消息失败，" + e.getMessage());
+        }
+    }
+
+    /**
+     * 频道转换为主题
+     *
+     * @param channel 频道
+     * @return 主题
+     */
+    private String toTopic(@NotNull String channel) {
+        if (!webSocketConfig.isMqttTopicLevel()) {
+            return channel;
+        }
+        // 频道中的 / 会变成额外的层级，转换回频道时无法还原
+        PARAM_INVALID.when(channel.contains(TOPIC_SEPARATOR), "开启 MQTT 主题层级映射时频道不能包含 /");
+        return channel.replace(WebSocketChannelTrie.SEPARATOR, TOPIC_SEPARATOR.charAt(0));
+    }
+
+    /**
+     * 通配频道转换为主题过滤器层级
+     *
+     * @param pattern 通配频道
+     * @return 主题过滤器层级
+     */
+    private String @NotNull [] toFilter(@NotNull String pattern) {
+        String[] segments = toTopic(pattern).split(TOPIC_SEPARATOR, -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (WebSocketChannelTrie.WILDCARD.equals(segments[i])) {
+                segments[i] = TOPIC_WILDCARD;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 主题转换为频道
+     *
+     * @param topic 主题
+     * @return 频道
+     */
+    private String toChannel(@NotNull String topic) {
+        if (!webSocketConfig.isMqttTopicLevel()) {
+            return topic;
+        }
+        return topic.replace(TOPIC_SEPARATOR.charAt(0), WebSocketChannelTrie.SEPARATOR);
+    }
+
+    /**
+     * 获取互不重叠的通配过滤器
+     *
+     * @return 过滤器
+     * @apiNote 与已有过滤器重叠的通配频道合并为更宽的过滤器，多出来的消息由路由的前缀树过滤
+     */
+    private @NotNull Set<String> getFilters() {
+        List<String[]> filters = new ArrayList<>();
+        for (String pattern : patternListenerMap.keySet()) {
+            String[] filter = toFilter(pattern);
+            // 合并后的过滤器可能又与其他过滤器重叠，继续合并直到没有重叠
+            boolean merged = true;
+            while (merged) {
+                merged = false;
+                Iterator<String[]> iterator = filters.iterator();
+                while (iterator.hasNext()) {
+                    String[] other = iterator.next();
+                    if (isOverlapped(filter, other)) {
+                        filter = merge(filter, other);
+                        iterator.remove();
+                        merged = true;
+                    }
+                }
+            }
+            filters.add(filter);
+        }
+        Set<String> filterSet = new HashSet<>();
+        filters.forEach(filter -> filterSet.add(String.join(TOPIC_SEPARATOR, filter)));
+        return filterSet;
+    }
+
+    /**
+     * 按当前的频道和通配频道调整 Broker 上的订阅
+     *
+     * @apiNote 先订阅新的过滤器和不再被覆盖的频道，再取消旧的订阅，调整期间不丢消息，但可能短暂收到重复的消息
+     */
+    private void updateSubscriptions() {
+        Set<String> filters = getFilters();
+        for (String filter : filters) {
+            if (!filterSet.contains(filter)) {
+                subscribeBroker(filter);
+                filterSet.add(filter);
+            }
+        }
+        for (String channel : listenerMap.keySet()) {
+            String topic = toTopic(channel);
+            if (!topicSet.contains(topic) && !isCovered(filters, topic)) {
+                subscribeBroker(topic);
+                topicSet.add(topic);
+            }
+        }
+        for (String filter : List.copyOf(filterSet)) {
+            if (!filters.contains(filter)) {
+                unsubscribeBroker(filter, filterSet);
+            }
+        }
+        for (String topic : List.copyOf(topicSet)) {
+            if (isCovered(filters, topic)) {
+                unsubscribeBroker(topic, topicSet);
+            }
+        }
+    }
+
+    /**
+     * 在 Broker 上订阅
+     *
+     * @param filter 主题或过滤器
+     */
+    private void subscribeBroker(String filter) {
+        try {
+            getClient().subscribe(filter, 0);
+        } catch (MqttException e) {
+            log.error(e.getMessage(), e);
+            throw new ServiceException("订阅 MQTT 主题失败，" + e.getMessage());
+        }
+    }
+
+    /**
+     * 在 Broker 上取消订阅
+     *
+     * @param filter     主题或过滤器
+     * @param subscribed 记录订阅的集合，取消成功后移除
+     * @apiNote 取消失败时保留记录，下次调整订阅时重试
+     */
+    private void unsubscribeBroker(String filter, Set<String> subscribed) {
+        try {
+            getClient().unsubscribe(filter);
+            subscribed.remove(filter);
+        } catch (MqttException e) {
+            log.error("取消订阅 MQTT 主题失败: {}", filter, e);
+        }
+    }
+
+    /**
+     * 获取共享的客户端
+     *
+     * @return 客户端
+     * @throws MqttException 异常
+     * @apiNote 首次订阅时连接，未使用 MQTT 传输时不会占用连接
+     */
+    private MqttClient getClient() throws MqttException {
+        MqttClient mqttClient = client;
+        if (Objects.nonNull(mqttClient)) {
+            return mqttClient;
+        }
+        synchronized (this) {
+            if (Objects.isNull(client)) {
+                mqttClient = mqttHelper.createClient(CLIENT_ID_PREFIX + UUID.randomUUID());
+                mqttClient.setCallback(new MqttCallbackExtended() {
+                    @Override
+                    public void connectComplete(boolean reconnect, String serverURI) {
+                        if (reconnect) {
+                            resubscribe();
+                        }
+                    }
+
+                    @Override
+                    public void connectionLost(Throwable throwable) {
+                        log.warn("MQTT 连接断开，等待自动重连: {}", throwable.getMessage());
+                    }
+
+                    @Override
+                    public void messageArrived(String topic, MqttMessage mqttMessage) {
+                        String channel = toChannel(topic);
+                        BiConsumer<String, byte[]> listener = listenerMap.get(channel);
+                        if (Objects.isNull(listener)) {
+                            // 具体匹配哪些通配频道由路由的前缀树判断
+                            listener = patternListenerMap.values().stream().findFirst().orElse(null);
+                        }
+                        if (Objects.nonNull(listener)) {
+                            listener.accept(channel, mqttMessage.getPayload());
+                        }
+                    }
+
+                    @Override
+                    public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
+
+                    }
+                });
+                MqttConnectOptions options = mqttHelper.createOption();
+                // 节点客户端不保留会话，重连后由 connectComplete 恢复订阅
+                options.setCleanSession(true);
+                options.setAutomaticReconnect(true);
+                mqttClient.connect(options);
+                client = mqttClient;
+            }
+            return client;
+        }
+    }
+
+    /**
+     * 重连后恢复订阅
+     */
+    private synchronized void resubscribe() {
+        filterSet.forEach(filter -> {
+            try {
+                client.subscribe(filter, 0);
+            } catch (MqttException e) {
+                log.error("恢复 MQTT 通配订阅失败: {}", filter, e);
+            }
+        });
+        topicSet.forEach(topic -> {
+            try {
+                client.subscribe(topic, 0);
+            } catch (MqttException e) {
+                log.error("恢复 MQTT 订阅失败: {}", topic, e);
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (Objects.nonNull(client)) {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+            client.close();
+        }
+    }
+}
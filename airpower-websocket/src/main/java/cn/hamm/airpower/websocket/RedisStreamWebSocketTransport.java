@@ -0,0 +1,269 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.redis.RedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>Redis Stream 传输</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 所有频道共用一个按长度裁剪的 Stream，每个节点一个线程阻塞读取，
+ * 节点记录最后处理的消息 ID，读取失败或处理变慢时从该位置继续追赶。
+ * 不保证投递：监听处理失败的消息只记录日志，不会重试；节点落后超过 {@link WebSocketConfig#getStreamMaxLength()}
+ * 时未读取的消息会被裁剪，检测到时记录警告
+ */
+@Slf4j
+@Component
+public class RedisStreamWebSocketTransport implements WebSocketTransport, DisposableBean {
+    /**
+     * Stream 的 Key
+     */
+    private static final String STREAM_KEY = "WEBSOCKET_STREAM";
+
+    /**
+     * 频道字段
+     */
+    private static final String FIELD_CHANNEL = "channel";
+
+    /**
+     * 消息字段
+     */
+    private static final String FIELD_MESSAGE = "message";
+
+    /**
+     * 读取失败后的重试间隔（毫秒）
+     */
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * 频道监听
+     */
+    private final ConcurrentMap<String, BiConsumer<String, byte[]>> listenerMap = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅的通配频道
+     */
+    private final Set<String> patternSet = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private RedisHelper redisHelper;
+
+    /**
+     * 读取线程
+     */
+    private volatile Thread reader;
+
+    /**
+     * 是否运行中
+     */
+    private volatile boolean running = false;
+
+    /**
+     * 通配监听
+     */
+    private volatile BiConsumer<String, byte[]> patternListener;
+
+    @Override
+    public void subscribe(String channel, BiConsumer<String, byte[]> listener) {
+        listenerMap.putIfAbsent(channel, listener);
+        start();
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        listenerMap.remove(channel);
+    }
+
+    @Override
+    public void subscribePattern(String pattern, BiConsumer<String, byte[]> listener) {
+        // 所有消息本来就会读到本节点，通配匹配交给路由的前缀树
+        patternListener = listener;
+        patternSet.add(pattern);
+        start();
+    }
+
+    @Override
+    public void unsubscribePattern(String pattern) {
+        patternSet.remove(pattern);
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        redisHelper.addToStream(
+                getStreamKey(),
+                Map.of(FIELD_CHANNEL, channel, FIELD_MESSAGE, message),
+                webSocketConfig.getStreamMaxLength(),
+                0
+        );
+    }
+
+    /**
+     * 启动读取线程
+     */
+    private void start() {
+        if (running) {
+            return;
+        }
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            reader = new Thread(this::read, "websocket-redis-stream");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * 循环读取 Stream
+     */
+    private void read() {
+        String lastId = null;
+        while (running && Objects.isNull(lastId)) {
+            try {
+                // 以 Redis 服务器的时间作为起点，节点时钟有偏差时也不会漏读或重放，之后始终从最后处理的消息继续
+                lastId = redisHelper.getServerTime() + "-0";
+            } catch (Exception exception) {
+                log.error("获取 Redis 服务器时间失败，{} 毫秒后重试", RETRY_MILLIS, exception);
+                sleep();
+            }
+        }
+        // 起点是服务器时间而不是处理过的消息，不做裁剪检查
+        boolean processed = false;
+        while (running) {
+            Map<String, Map<String, String>> messages;
+            try {
+                messages = redisHelper.readStream(
+                        getStreamKey(),
+                        lastId,
+                        webSocketConfig.getStreamReadCount(),
+                        webSocketConfig.getStreamBlockMillis()
+                );
+            } catch (Exception exception) {
+                log.error("读取 WebSocket Stream 失败，{} 毫秒后从 {} 继续", RETRY_MILLIS, lastId, exception);
+                sleep();
+                continue;
+            }
+            if (processed && !messages.isEmpty() && messages.size() >= webSocketConfig.getStreamReadCount()) {
+                checkTrimmed(lastId, messages.keySet().iterator().next());
+            }
+            // 处理完一批才读取下一批，处理慢时消息留在 Stream 中等待追赶
+            for (Map.Entry<String, Map<String, String>> entry : messages.entrySet()) {
+                dispatch(entry.getValue());
+                lastId = entry.getKey();
+                processed = true;
+            }
+        }
+    }
+
+    /**
+     * 检查未读取的消息是否已被裁剪
+     *
+     * @param lastId  最后处理的消息 ID
+     * @param firstId 本批读取的第一条消息 ID
+     * @apiNote 裁剪总是从最早的消息开始，最后处理的消息仍在 Stream 中时，之后的消息都没有被裁剪；
+     * 只在读满一批（节点正在追赶）时检查，避免每次读取多一次往返
+     */
+    private void checkTrimmed(String lastId, String firstId) {
+        try {
+            String streamFirstId = redisHelper.getStreamFirstId(getStreamKey());
+            if (Objects.nonNull(streamFirstId) && compareId(streamFirstId, lastId) > 0) {
+                log.warn("WebSocket Stream 已被裁剪，节点落后超过 {} 条，{} 到 {} 之间的消息可能已丢失",
+                        webSocketConfig.getStreamMaxLength(), lastId, firstId);
+            }
+        } catch (Exception exception) {
+            log.warn("检查 WebSocket Stream 裁剪失败: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * 比较消息 ID
+     *
+     * @param id      消息 ID
+     * @param otherId 另一个消息 ID
+     * @return 负数、零或正数，分别表示 {@code id} 早于、等于或晚于 {@code otherId}
+     */
+    private static int compareId(@NotNull String id, @NotNull String otherId) {
+        int index = id.indexOf('-');
+        int otherIndex = otherId.indexOf('-');
+        int result = Long.compare(
+                Long.parseLong(id.substring(0, index)), Long.parseLong(otherId.substring(0, otherIndex))
+        );
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(Long.parseLong(id.substring(index + 1)), Long.parseLong(otherId.substring(otherIndex + 1)));
+    }
+
+    /**
+     * 分发消息到频道监听
+     *
+     * @param fields 消息字段
+     */
+    private void dispatch(Map<String, String> fields) {
+        String channel = fields.get(FIELD_CHANNEL);
+        String message = fields.get(FIELD_MESSAGE);
+        if (Objects.isNull(channel) || Objects.isNull(message)) {
+            return;
+        }
+        BiConsumer<String, byte[]> listener = listenerMap.get(channel);
+        if (Objects.isNull(listener) && !patternSet.isEmpty()) {
+            listener = patternListener;
+        }
+        if (Objects.isNull(listener)) {
+            return;
+        }
+        try {
+            listener.accept(channel, message.getBytes(UTF_8));
+        } catch (Exception exception) {
+            log.error("处理 WebSocket Stream 消息失败", exception);
+        }
+    }
+
+    /**
+     * 等待重试
+     */
+    private void sleep() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * 获取 Stream 的 Key
+     *
+     * @return Key
+     */
+    private String getStreamKey() {
+        return webSocketConfig.getChannelPrefix() + STREAM_KEY;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        if (Objects.nonNull(reader)) {
+            reader.interrupt();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.redis.RedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>Redis 发布订阅传输</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个节点共享一个 {@link RedisMessageListenerContainer}，只占用一个订阅连接。
+ * 每个通配频道向 Redis 订阅一个对应的模式，{@code *} 分段映射为 Redis 的 {@code *}，
+ * Redis 的 {@code *} 可以跨越分段，精确匹配由路由的前缀树完成。
+ * 同一条消息可能同时匹配频道订阅和多个模式订阅，每条消息只由频道监听或字典序最小的匹配模式分发一次
+ */
+@Slf4j
+@Component
+public class RedisWebSocketTransport implements WebSocketTransport, DisposableBean {
+    /**
+     * 频道监听
+     */
+    private final ConcurrentMap<String, MessageListener> listenerMap = new ConcurrentHashMap<>();
+
+    /**
+     * 通配频道的模式监听，按通配频道排序
+     */
+    private final ConcurrentNavigableMap<String, PatternSubscription> patternMap = new ConcurrentSkipListMap<>();
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Autowired
+    private RedisHelper redisHelper;
+
+    /**
+     * 监听容器
+     */
+    private volatile RedisMessageListenerContainer container;
+
+    /**
+     * 消息分发线程
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * 订阅线程
+     */
+    private volatile ExecutorService subscriptionExecutor;
+
+    @Override
+    public synchronized void subscribe(String channel, BiConsumer<String, byte[]> listener) {
+        if (listenerMap.containsKey(channel)) {
+            return;
+        }
+        MessageListener messageListener = (message, pattern) -> listener.accept(channel, message.getBody());
+        log.info("REDIS开始订阅频道: {}", channel);
+        getContainer().addMessageListener(messageListener, new ChannelTopic(channel));
+        // 订阅生效后才让匹配的模式让出分发，避免订阅生效之前的消息两边都不分发
+        listenerMap.put(channel, messageListener);
+    }
+
+    @Override
+    public synchronized void unsubscribe(String channel) {
+        // 先让匹配的模式接替分发，再取消订阅
+        MessageListener messageListener = listenerMap.remove(channel);
+        if (Objects.nonNull(messageListener)) {
+            log.info("REDIS取消订阅频道: {}", channel);
+            getContainer().removeMessageListener(messageListener, new ChannelTopic(channel));
+        }
+    }
+
+    @Override
+    public synchronized void subscribePattern(String pattern, BiConsumer<String, byte[]> listener) {
+        if (patternMap.containsKey(pattern)) {
+            return;
+        }
+        MessageListener messageListener = (message, ignored) -> {
+            String channel = new String(message.getChannel(), UTF_8);
+            if (isDispatcher(pattern, channel)) {
+                listener.accept(channel, message.getBody());
+            }
+        };
+        PatternTopic topic = new PatternTopic(toGlob(pattern));
+        log.info("REDIS开始订阅通配频道: {}", topic.getTopic());
+        getContainer().addMessageListener(messageListener, topic);
+        // 订阅生效后才参与分发者的选择，避免其他模式让出分发后本模式还收不到消息
+        patternMap.put(pattern, new PatternSubscription(messageListener, topic, toRegex(pattern)));
+    }
+
+    @Override
+    public synchronized void unsubscribePattern(String pattern) {
+        // 先退出分发者的选择，再取消订阅，由其他匹配的模式接替分发
+        PatternSubscription subscription = patternMap.remove(pattern);
+        if (Objects.isNull(subscription)) {
+            return;
+        }
+        log.info("REDIS取消订阅通配频道: {}", subscription.topic().getTopic());
+        getContainer().removeMessageListener(subscription.listener(), subscription.topic());
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        redisHelper.publish(channel, message);
+    }
+
+    /**
+     * 是否由该模式分发消息
+     *
+     * @param pattern 收到消息的通配频道
+     * @param channel 消息实际的频道
+     * @return 没有频道订阅，且该模式是匹配消息的模式中字典序最小的一个
+     */
+    private boolean isDispatcher(String pattern, String channel) {
+        if (listenerMap.containsKey(channel)) {
+            // 已按频道订阅的消息由频道监听处理
+            return false;
+        }
+        for (Map.Entry<String, PatternSubscription> entry : patternMap.entrySet()) {
+            if (entry.getValue().regex().matcher(channel).matches()) {
+                return entry.getKey().equals(pattern);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 通配频道转换为 Redis 模式
+     *
+     * @param pattern 通配频道
+     * @return 转义后的字面分段，通配分段为 {@code *}
+     */
+    private static String toGlob(String pattern) {
+        StringBuilder builder = new StringBuilder();
+        forEachSegment(pattern, segment -> builder.append(WebSocketChannelTrie.WILDCARD.equals(segment) ?
+                "*" : segment.replaceAll("([\\\\*?\\[\\]])", "\\\\$1")));
+        return builder.toString();
+    }
+
+    /**
+     * 通配频道转换为与 Redis 模式等价的正则
+     *
+     * @param pattern 通配频道
+     * @return 正则
+     */
+    private static Pattern toRegex(String pattern) {
+        StringBuilder builder = new StringBuilder();
+        forEachSegment(pattern, segment -> builder.append(WebSocketChannelTrie.WILDCARD.equals(segment) ?
+                ".*" : Pattern.quote(segment)));
+        return Pattern.compile(builder.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * 按顺序处理通配频道的分段和分隔符
+     *
+     * @param pattern  通配频道
+     * @param consumer 分段和分隔符的处理
+     */
+    private static void forEachSegment(String pattern, Consumer<String> consumer) {
+        String[] segments = pattern.split("\\" + WebSocketChannelTrie.SEPARATOR, -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                consumer.accept(String.valueOf(WebSocketChannelTrie.SEPARATOR));
+            }
+            consumer.accept(segments[i]);
+        }
+    }
+
+    /**
+     * 获取监听容器
+     *
+     * @return 监听容器
+     * @apiNote 首次订阅时创建，未使用 Redis 传输时不会占用连接
+     */
+    private RedisMessageListenerContainer getContainer() {
+        RedisMessageListenerContainer listenerContainer = container;
+        if (Objects.nonNull(listenerContainer)) {
+            return listenerContainer;
+        }
+        synchronized (this) {
+            if (Objects.isNull(container)) {
+                // 单线程分发，保证同一节点内消息的顺序
+                executor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-redis-listener");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                // 阻塞式客户端的订阅循环会一直占用线程，与分发线程分开，否则分发任务永远排在订阅循环之后
+                subscriptionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-redis-subscriber");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                listenerContainer = new RedisMessageListenerContainer();
+                listenerContainer.setConnectionFactory(redisConnectionFactory);
+                listenerContainer.setTaskExecutor(executor);
+                listenerContainer.setSubscriptionExecutor(subscriptionExecutor);
+                listenerContainer.afterPropertiesSet();
+                listenerContainer.start();
+                container = listenerContainer;
+            }
+            return container;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (Objects.nonNull(container)) {
+            container.destroy();
+        }
+        if (Objects.nonNull(executor)) {
+            executor.shutdown();
+        }
+        if (Objects.nonNull(subscriptionExecutor)) {
+            subscriptionExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 通配频道的订阅
+     *
+     * @param listener 模式监听
+     * @param topic    Redis 模式
+     * @param regex    与 Redis 模式等价的正则
+     */
+    private record PatternSubscription(MessageListener listener, PatternTopic topic, Pattern regex) {
+    }
+}
@@ -0,0 +1,300 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.DateTimeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>WebSocket 连接准入</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 限制本节点的总连接数、每个用户的连接数和每秒的握手数，拒绝时返回带随机抖动的重试秒数。
+ * 注册 WebSocket 时通过 {@code addInterceptors} 加入本拦截器，可以在升级协议之前以 {@code 503} 和
+ * {@code Retry-After} 拒绝握手；未加入时在连接建立后以 {@code 1013} 关闭，关闭原因为 {@code retryAfter=秒数}。
+ * 节点停止时先拒绝新的握手，再把已有连接分批关闭，由客户端重连到其他节点
+ */
+@Slf4j
+@Component
+public class WebSocketAdmission implements HandshakeInterceptor, SmartLifecycle {
+    /**
+     * 握手已通过准入的会话属性
+     */
+    private static final String SESSION_ATTRIBUTE = "AIRPOWER_WEBSOCKET_ADMITTED";
+
+    /**
+     * 关闭原因中的重试秒数
+     */
+    private static final String REASON_RETRY_AFTER = "retryAfter=";
+
+    /**
+     * 已准入的会话及其用户 ID
+     */
+    private final ConcurrentMap<WebSocketSession, Long> sessionMap = new ConcurrentHashMap<>();
+
+    /**
+     * 每个用户的连接数
+     */
+    private final ConcurrentMap<Long, Integer> userConnectionMap = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点的连接数
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    /**
+     * 握手令牌桶剩余的令牌
+     */
+    private double handshakeTokens = -1;
+
+    /**
+     * 握手令牌桶上次补充的时间（纳秒）
+     */
+    private long handshakeRefillNanos = System.nanoTime();
+
+    /**
+     * 是否运行中
+     */
+    private volatile boolean running = false;
+
+    /**
+     * 是否正在迁移连接
+     */
+    private volatile boolean draining = false;
+
+    @Override
+    public boolean beforeHandshake(@NotNull ServerHttpRequest request, @NotNull ServerHttpResponse response,
+                                   @NotNull org.springframework.web.socket.WebSocketHandler wsHandler,
+                                   @NotNull Map<String, Object> attributes) {
+        if (isOverloaded()) {
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(getRetryAfterSecond()));
+            return false;
+        }
+        attributes.put(SESSION_ATTRIBUTE, true);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(@NotNull ServerHttpRequest request, @NotNull ServerHttpResponse response,
+                               @NotNull org.springframework.web.socket.WebSocketHandler wsHandler,
+                               @Nullable Exception exception) {
+    }
+
+    /**
+     * 连接准入
+     *
+     * @param session 会话
+     * @param userId  用户 ID
+     * @return 拒绝时关闭连接的状态，准入时返回 {@code null}
+     */
+    public final @Nullable CloseStatus admit(@NotNull WebSocketSession session, long userId) {
+        boolean handshakeAdmitted = Objects.nonNull(session.getAttributes().remove(SESSION_ATTRIBUTE));
+        if (!handshakeAdmitted && isOverloaded()) {
+            return getRetryStatus(CloseStatus.SERVICE_OVERLOAD);
+        }
+        int maxConnections = webSocketConfig.getMaxConnections();
+        if (connections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            connections.decrementAndGet();
+            return getRetryStatus(CloseStatus.SERVICE_OVERLOAD);
+        }
+        int maxConnectionsPerUser = webSocketConfig.getMaxConnectionsPerUser();
+        AtomicBoolean admitted = new AtomicBoolean(false);
+        userConnectionMap.compute(userId, (key, count) -> {
+            int current = Objects.isNull(count) ? 0 : count;
+            if (maxConnectionsPerUser > 0 && current >= maxConnectionsPerUser) {
+                return count;
+            }
+            admitted.set(true);
+            return current + 1;
+        });
+        if (!admitted.get()) {
+            connections.decrementAndGet();
+            return CloseStatus.POLICY_VIOLATION.withReason("用户连接数超过上限");
+        }
+        sessionMap.put(session, userId);
+        return null;
+    }
+
+    /**
+     * 释放连接
+     *
+     * @param session 会话
+     * @apiNote 未准入的会话不做处理
+     */
+    public final void release(@NotNull WebSocketSession session) {
+        Long userId = sessionMap.remove(session);
+        if (Objects.isNull(userId)) {
+            return;
+        }
+        connections.decrementAndGet();
+        userConnectionMap.computeIfPresent(userId, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 获取本节点的连接数
+     *
+     * @return 连接数
+     */
+    public final int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * 是否正在迁移连接
+     *
+     * @return 是否迁移中
+     */
+    public final boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 迁移本节点的所有连接
+     *
+     * @apiNote 立即拒绝新的握手，已有连接在 {@link WebSocketConfig#getDrainSecond()} 内分批以 {@code 1012} 关闭，
+     * 客户端按关闭原因中的重试秒数重连到其他节点，开启消息日志时可以补发迁移期间的事件。
+     * 该方法会阻塞到所有连接关闭
+     */
+    public final void drain() {
+        draining = true;
+        List<WebSocketSession> sessions = List.copyOf(sessionMap.keySet());
+        if (sessions.isEmpty()) {
+            return;
+        }
+        long drainMillis = (long) Math.max(webSocketConfig.getDrainSecond(), 0) * DateTimeUtil.MILLISECONDS_PER_SECOND;
+        log.info("开始迁移 {} 个 WebSocket 连接，预计 {} 毫秒", sessions.size(), drainMillis);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < sessions.size(); i++) {
+            // 按序均匀分布关闭时间，避免所有客户端同时重连到其他节点
+            long wait = start + drainMillis * i / sessions.size() - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(wait);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closeSession(sessions.get(i), getRetryStatus(CloseStatus.SERVICE_RESTARTED));
+        }
+        log.info("WebSocket 连接迁移完成");
+    }
+
+    @Override
+    public void start() {
+        draining = false;
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            drain();
+        } finally {
+            running = false;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 是否需要拒绝新的握手
+     *
+     * @return 是否拒绝
+     */
+    private boolean isOverloaded() {
+        if (draining) {
+            return true;
+        }
+        int maxConnections = webSocketConfig.getMaxConnections();
+        if (maxConnections > 0 && connections.get() >= maxConnections) {
+            return true;
+        }
+        return !tryAcquireHandshake();
+    }
+
+    /**
+     * 从握手令牌桶获取一个令牌
+     *
+     * @return 是否获取成功
+     */
+    private synchronized boolean tryAcquireHandshake() {
+        int permitsPerSecond = webSocketConfig.getHandshakePermitsPerSecond();
+        if (permitsPerSecond <= 0) {
+            return true;
+        }
+        int burst = webSocketConfig.getHandshakeBurst() > 0 ? webSocketConfig.getHandshakeBurst() : permitsPerSecond;
+        long now = System.nanoTime();
+        if (handshakeTokens < 0) {
+            handshakeTokens = burst;
+        } else {
+            handshakeTokens = Math.min(burst,
+                    handshakeTokens + (now - handshakeRefillNanos) * permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+        handshakeRefillNanos = now;
+        if (handshakeTokens < 1) {
+            return false;
+        }
+        handshakeTokens--;
+        return true;
+    }
+
+    /**
+     * 获取带随机抖动的重试秒数
+     *
+     * @return 重试秒数
+     */
+    private int getRetryAfterSecond() {
+        int base = Math.max(webSocketConfig.getRetryAfterSecond(), 1);
+        return base + ThreadLocalRandom.current().nextInt(base + 1);
+    }
+
+    /**
+     * 获取带重试秒数的关闭状态
+     *
+     * @param status 关闭状态
+     * @return 关闭状态
+     */
+    private @NotNull CloseStatus getRetryStatus(@NotNull CloseStatus status) {
+        return status.withReason(REASON_RETRY_AFTER + getRetryAfterSecond());
+    }
+
+    /**
+     * 关闭会话
+     *
+     * @param session 会话
+     * @param status  关闭状态
+     */
+    private void closeSession(@NotNull WebSocketSession session, @NotNull CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException exception) {
+            log.warn("迁移 WebSocket 连接失败: {}", exception.getMessage());
+        }
+    }
+}
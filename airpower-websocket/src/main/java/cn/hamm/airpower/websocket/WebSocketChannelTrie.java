@@ -0,0 +1,177 @@
+package cn.hamm.airpower.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * <h1>通配频道前缀树</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 频道按 {@code .} 分段，值为 {@code *} 的分段匹配任意一个分段，如 {@code order.*} 匹配 {@code order.1}。
+ * 匹配只沿着字面分段和通配分段两条路径向下，不遍历所有通配频道；读取无锁，修改串行
+ */
+public class WebSocketChannelTrie {
+    /**
+     * 分段分隔符
+     */
+    public static final char SEPARATOR = '.';
+
+    /**
+     * 通配分段
+     */
+    public static final String WILDCARD = "*";
+
+    /**
+     * 根节点
+     */
+    private final Node root = new Node();
+
+    /**
+     * 通配频道数量
+     */
+    private volatile int size = 0;
+
+    /**
+     * 是否为通配频道
+     *
+     * @param channel 频道
+     * @return 是否包含通配分段
+     */
+    public static boolean isPattern(@NotNull String channel) {
+        for (String segment : split(channel)) {
+            if (WILDCARD.equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分段
+     *
+     * @param channel 频道
+     * @return 分段
+     */
+    private static String @NotNull [] split(@NotNull String channel) {
+        return channel.split("\\" + SEPARATOR, -1);
+    }
+
+    /**
+     * 会话订阅通配频道
+     *
+     * @param pattern 通配频道
+     * @param session 会话
+     * @return 是否为该通配频道的第一个会话
+     */
+    public synchronized boolean add(@NotNull String pattern, @NotNull WebSocketSession session) {
+        Node node = root;
+        for (String segment : split(pattern)) {
+            node = node.children.computeIfAbsent(segment, key -> new Node());
+        }
+        boolean first = node.sessions.isEmpty();
+        node.sessions.add(session);
+        if (first) {
+            size++;
+        }
+        return first;
+    }
+
+    /**
+     * 会话取消订阅通配频道
+     *
+     * @param pattern 通配频道
+     * @param session 会话
+     * @return 该通配频道是否已没有会话
+     */
+    public synchronized boolean remove(@NotNull String pattern, @NotNull WebSocketSession session) {
+        String[] segments = split(pattern);
+        Node[] path = new Node[segments.length + 1];
+        path[0] = root;
+        for (int i = 0; i < segments.length; i++) {
+            path[i + 1] = path[i].children.get(segments[i]);
+            if (Objects.isNull(path[i + 1])) {
+                return false;
+            }
+        }
+        Node node = path[segments.length];
+        if (!node.sessions.remove(session) || !node.sessions.isEmpty()) {
+            return false;
+        }
+        size--;
+        // 回收没有会话也没有子节点的分支
+        for (int i = segments.length; i > 0; i--) {
+            if (!path[i].sessions.isEmpty() || !path[i].children.isEmpty()) {
+                break;
+            }
+            path[i - 1].children.remove(segments[i - 1]);
+        }
+        return true;
+    }
+
+    /**
+     * 是否没有通配频道
+     *
+     * @return 是否为空
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 匹配频道
+     *
+     * @param channel  频道
+     * @param consumer 匹配到的会话
+     */
+    public void match(@NotNull String channel, @NotNull Consumer<WebSocketSession> consumer) {
+        if (isEmpty()) {
+            return;
+        }
+        match(root, split(channel), 0, consumer);
+    }
+
+    /**
+     * 递归匹配
+     *
+     * @param node     当前节点
+     * @param segments 频道分段
+     * @param index    当前分段
+     * @param consumer 匹配到的会话
+     */
+    private void match(@NotNull Node node, String @NotNull [] segments, int index,
+                       @NotNull Consumer<WebSocketSession> consumer) {
+        if (index == segments.length) {
+            node.sessions.forEach(consumer);
+            return;
+        }
+        Node literal = node.children.get(segments[index]);
+        if (Objects.nonNull(literal)) {
+            match(literal, segments, index + 1, consumer);
+        }
+        Node wildcard = node.children.get(WILDCARD);
+        if (Objects.nonNull(wildcard) && !WILDCARD.equals(segments[index])) {
+            match(wildcard, segments, index + 1, consumer);
+        }
+    }
+
+    /**
+     * <h2>前缀树节点</h2>
+     */
+    private static class Node {
+        /**
+         * 子节点
+         */
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+
+        /**
+         * 订阅到该节点的会话
+         */
+        private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -40,8 +40,139 @@ public class WebSocketConfig {
      */
     private String channelPrefix = "airpower:";
 
+    /**
+     * MQTT 传输是否把频道中的 {@code .} 映射为主题层级 {@code /}
+     *
+     * @apiNote 默认频道原样作为主题，与旧版本一致；开启后才支持通配频道，频道不能再包含 {@code /}，
+     * 且所有节点和直接收发 MQTT 的客户端需要同时改用新的主题
+     */
+    private boolean mqttTopicLevel = false;
+
     /**
      * WebSocket 允许的跨域
      */
     private String allowedOrigins = "*";
+
+    /**
+     * 每个会话的发送队列最多缓存的消息数
+     */
+    private int sendQueueCapacity = 1000;
+
+    /**
+     * 每个会话的发送队列最多缓存的字节数
+     */
+    private int sendBufferSizeLimit = 512 * 1024;
+
+    /**
+     * 单条消息的发送时间上限（毫秒），超过后断开连接
+     */
+    private int sendTimeLimit = 10000;
+
+    /**
+     * 发送队列溢出策略
+     */
+    private WebSocketOverflowPolicy sendOverflowPolicy = WebSocketOverflowPolicy.DROP_OLDEST;
+
+    /**
+     * 发送线程数，{@code 0} 为处理器数量的两倍
+     */
+    private int sendThreads = 0;
+
+    /**
+     * 批量窗口（毫秒），{@code 0} 为不批量
+     *
+     * @apiNote 开启后窗口内排队的多个事件以 JSON 数组（或 CBOR 数组）的形式在一帧内发送，客户端需要同时处理单个事件和事件数组
+     */
+    private int batchWindowMillis = 0;
+
+    /**
+     * 每批最多的事件数，排队的事件达到该数量时不再等待窗口结束
+     */
+    private int batchMaxSize = 50;
+
+    /**
+     * 是否合并事件，开启后排队中负载类型和负载合并键相同的事件只发送最新的一条
+     */
+    private boolean coalesce = false;
+
+    /**
+     * 是否开启集群在线状态
+     *
+     * @apiNote 开启后通过 Redis 记录用户所在的节点，发给用户的事件只发布到持有该用户连接的节点，用户不在线时不发布
+     */
+    private boolean presence = false;
+
+    /**
+     * 在线状态心跳间隔（秒），超过三个周期没有心跳的节点视为离线
+     */
+    private int presenceHeartbeatSecond = 10;
+
+    /**
+     * 是否记录发给用户的事件
+     *
+     * @apiNote 开启后发给用户的事件写入该用户的 Redis Stream，客户端重连时通过 {@code lastEventId} 查询参数补发
+     */
+    private boolean messageStore = false;
+
+    /**
+     * 每个用户最多保留的事件数
+     */
+    private int messageStoreSize = 100;
+
+    /**
+     * 用户消息日志的保留时间（秒）
+     */
+    private int messageStoreSecond = 86400;
+
+    /**
+     * {@code REDIS_STREAM} 方式下 Stream 最多保留的消息数，节点落后超过该数量时会丢失最早的消息
+     */
+    private int streamMaxLength = 100000;
+
+    /**
+     * {@code REDIS_STREAM} 方式下每次最多读取的消息数
+     */
+    private int streamReadCount = 500;
+
+    /**
+     * {@code REDIS_STREAM} 方式下没有消息时每次阻塞读取的毫秒数
+     */
+    private int streamBlockMillis = 2000;
+
+    /**
+     * 每个会话最多订阅的频道数（包括通配频道），{@code 0} 为不限制
+     */
+    private int maxSubscriptionsPerSession = 100;
+
+    /**
+     * 本节点最多的连接数，{@code 0} 为不限制
+     */
+    private int maxConnections = 0;
+
+    /**
+     * 每个用户在本节点最多的连接数，{@code 0} 为不限制
+     */
+    private int maxConnectionsPerUser = 0;
+
+    /**
+     * 每秒允许的握手数，{@code 0} 为不限制
+     *
+     * @apiNote 令牌桶限流，重连风暴时超出的握手直接拒绝，不校验令牌也不占用传输资源
+     */
+    private int handshakePermitsPerSecond = 0;
+
+    /**
+     * 握手令牌桶的容量，{@code 0} 为与每秒允许的握手数相同
+     */
+    private int handshakeBurst = 0;
+
+    /**
+     * 拒绝连接时建议客户端重试的基础秒数，实际返回 {@code [n, 2n]} 之间的随机值，避免客户端同时重连
+     */
+    private int retryAfterSecond = 5;
+
+    /**
+     * 节点停止时迁移连接的秒数，连接在这段时间内分批关闭，由客户端重连到其他节点
+     */
+    private int drainSecond = 10;
 }
@@ -1,13 +1,12 @@
 package cn.hamm.airpower.websocket;
 
-import cn.hamm.airpower.core.RandomUtil;
 import lombok.Data;
 import lombok.experimental.Accessors;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * <h1>WebSocket 事件</h1>
@@ -64,15 +63,14 @@ public class WebSocketEvent {
 
     /**
      * 重置事件的 ID 和事件
+     *
+     * @apiNote ID 为十六进制的毫秒时间戳加随机数，按时间有序
      */
     @Contract(" -> this")
     protected final WebSocketEvent resetEvent() {
         time = System.currentTimeMillis();
-        id = Base64.getEncoder().encodeToString((String.format(
-                "%s-%s",
-                time,
-                RandomUtil.randomString(6)
-        )).getBytes(StandardCharsets.UTF_8));
+        HexFormat hexFormat = HexFormat.of();
+        id = hexFormat.toHexDigits(time) + hexFormat.toHexDigits(ThreadLocalRandom.current().nextInt());
         return this;
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package cn.hamm.airpower.websocket;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Objects;
+
+/**
+ * <h1>WebSocket 消息格式</h1>
+ *
+ * @author Hamm.cn
+ */
+@AllArgsConstructor
+@Getter
+public enum WebSocketFormat {
+    /**
+     * JSON 文本帧
+     */
+    JSON("json"),
+
+    /**
+     * CBOR 二进制帧
+     */
+    CBOR("cbor");
+
+    /**
+     * 会话属性中保存格式的键
+     */
+    public static final String SESSION_ATTRIBUTE = "AIRPOWER_WEBSOCKET_FORMAT";
+
+    /**
+     * 查询参数或子协议中的名称
+     */
+    private final String name;
+
+    /**
+     * 按名称查找格式
+     *
+     * @param name 名称
+     * @return 格式，未知名称返回 {@code null}
+     */
+    public static @Nullable WebSocketFormat of(@Nullable String name) {
+        for (WebSocketFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取会话的格式
+     *
+     * @param session 会话
+     * @return 格式，默认 {@link #JSON}
+     */
+    public static @NotNull WebSocketFormat of(@NotNull WebSocketSession session) {
+        Object format = session.getAttributes().get(SESSION_ATTRIBUTE);
+        return Objects.requireNonNullElse((WebSocketFormat) format, JSON);
+    }
+}
@@ -0,0 +1,243 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.exception.ServiceException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import static cn.hamm.airpower.exception.Errors.WEBSOCKET_ERROR;
+
+/**
+ * <h1>WebSocket 消息帧</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 持有一条事件的 JSON 字节，各格式的消息在首次使用时编码一次，之后由所有会话共享
+ */
+@Slf4j
+public class WebSocketFrame {
+    /**
+     * JSON 树解析器
+     */
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * CBOR 编解码器
+     */
+    private static final ObjectMapper CBOR_MAPPER = new CBORMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * 事件的 JSON 字节
+     */
+    private final byte[] json;
+
+    /**
+     * 合并键
+     */
+    private volatile String coalesceKey;
+
+    /**
+     * 接收方 ID
+     */
+    private volatile Long to;
+
+    /**
+     * 事件 ID
+     */
+    private volatile String id;
+
+    /**
+     * 是否已解析事件字段
+     */
+    private volatile boolean parsed = false;
+
+    /**
+     * 文本消息
+     */
+    private volatile TextMessage textMessage;
+
+    /**
+     * CBOR 二进制消息
+     */
+    private volatile BinaryMessage binaryMessage;
+
+    /**
+     * 创建消息帧
+     *
+     * @param json 事件的 JSON 字节
+     */
+    public WebSocketFrame(byte @NotNull [] json) {
+        this.json = json;
+    }
+
+    /**
+     * 解析 CBOR 编码的事件负载
+     *
+     * @param data CBOR 字节
+     * @return 事件负载
+     */
+    public static @NotNull WebSocketPayload parsePayload(byte @NotNull [] data) {
+        try {
+            return CBOR_MAPPER.readValue(data, WebSocketPayload.class);
+        } catch (IOException exception) {
+            log.error("解析 CBOR 负载失败", exception);
+            throw new ServiceException(WEBSOCKET_ERROR, "解析 CBOR 负载失败");
+        }
+    }
+
+    /**
+     * 合并多个事件帧为一个数组帧
+     *
+     * @param frames 事件帧
+     * @return 数组帧
+     * @apiNote 直接拼接 JSON 字节，不重新序列化
+     */
+    public static @NotNull WebSocketFrame batch(@NotNull List<WebSocketFrame> frames) {
+        int length = frames.size() + 1;
+        for (WebSocketFrame frame : frames) {
+            length += frame.json.length;
+        }
+        byte[] json = new byte[length];
+        int position = 0;
+        json[position++] = '[';
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) {
+                json[position++] = ',';
+            }
+            byte[] item = frames.get(i).json;
+            System.arraycopy(item, 0, json, position, item.length);
+            position += item.length;
+        }
+        json[position] = ']';
+        return new WebSocketFrame(json);
+    }
+
+    /**
+     * 获取字节数
+     *
+     * @return JSON 字节数
+     */
+    public final int getLength() {
+        return json.length;
+    }
+
+    /**
+     * 获取合并键
+     *
+     * @return 负载类型和负载合并键，负载没有合并键时返回 {@code null}
+     * @apiNote 首次调用时解析一次，所有会话共享
+     */
+    public final @Nullable String getCoalesceKey() {
+        parse();
+        return coalesceKey;
+    }
+
+    /**
+     * 获取事件 ID
+     *
+     * @return 事件 ID，没有时返回 {@code null}
+     * @apiNote 首次调用时解析一次，所有会话共享
+     */
+    public final @Nullable String getId() {
+        parse();
+        return id;
+    }
+
+    /**
+     * 获取接收方 ID
+     *
+     * @return 接收方 ID，没有时返回 {@code null}
+     * @apiNote 首次调用时解析一次，所有会话共享
+     */
+    public final @Nullable Long getTo() {
+        parse();
+        return to;
+    }
+
+    /**
+     * 解析路由需要的事件字段
+     */
+    private void parse() {
+        if (parsed) {
+            return;
+        }
+        try {
+            JsonNode event = JSON_MAPPER.readTree(json);
+            JsonNode idNode = event.get("id");
+            if (Objects.nonNull(idNode) && idNode.isTextual()) {
+                id = idNode.asText();
+            }
+            JsonNode toNode = event.get("to");
+            if (Objects.nonNull(toNode) && toNode.canConvertToLong()) {
+                to = toNode.asLong();
+            }
+            JsonNode payload = event.path("payload");
+            JsonNode key = payload.get("key");
+            if (Objects.nonNull(key) && !key.isNull()) {
+                coalesceKey = payload.path("type").asText() + ":" + key.asText();
+            }
+        } catch (IOException exception) {
+            log.warn("解析事件字段失败: {}", exception.getMessage());
+        }
+        parsed = true;
+    }
+
+    /**
+     * 获取指定格式的消息
+     *
+     * @param format 格式
+     * @return 消息
+     */
+    public final @NotNull WebSocketMessage<?> getMessage(@NotNull WebSocketFormat format) {
+        return switch (format) {
+            case JSON -> getTextMessage();
+            case CBOR -> getBinaryMessage();
+        };
+    }
+
+    /**
+     * 获取文本消息
+     *
+     * @return 文本消息
+     */
+    public final @NotNull TextMessage getTextMessage() {
+        TextMessage message = textMessage;
+        if (Objects.isNull(message)) {
+            // 直接使用字节构建，避免发送和计算长度时重复编码
+            message = new TextMessage(json);
+            textMessage = message;
+        }
+        return message;
+    }
+
+    /**
+     * 获取 CBOR 二进制消息
+     *
+     * @return 二进制消息
+     */
+    public final @NotNull BinaryMessage getBinaryMessage() {
+        BinaryMessage message = binaryMessage;
+        if (Objects.isNull(message)) {
+            try {
+                message = new BinaryMessage(CBOR_MAPPER.writeValueAsBytes(JSON_MAPPER.readTree(json)));
+            } catch (IOException exception) {
+                log.error("编码 CBOR 消息失败", exception);
+                throw new ServiceException(WEBSOCKET_ERROR, "编码 CBOR 消息失败");
+            }
+            binaryMessage = message;
+        }
+        return message;
+    }
+}
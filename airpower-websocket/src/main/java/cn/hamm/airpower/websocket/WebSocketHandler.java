@@ -7,7 +7,7 @@ import cn.hamm.airpower.core.TaskUtil;
 import cn.hamm.airpower.core.exception.ServiceException;
 import cn.hamm.airpower.mqtt.MqttHelper;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,12 +15,21 @@ import org.springframework.data.redis.connection.*;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.StringUtils;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -34,7 +43,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 @Component
 @Slf4j
-public class WebSocketHandler extends TextWebSocketHandler implements MessageListener {
+public class WebSocketHandler extends AbstractWebSocketHandler implements MessageListener, SubProtocolCapable {
     /**
      * 订阅用户频道前缀
      */
@@ -45,14 +54,35 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      */
     public static final String CHANNEL_ALL = "WEBSOCKET_ALL";
 
+    /**
+     * AccessToken 查询参数，未传入时整个查询字符串作为 AccessToken
+     */
+    public static final String QUERY_TOKEN = "token";
+
+    /**
+     * 消息格式查询参数，也可以通过子协议协商
+     */
+    public static final String QUERY_FORMAT = "format";
+
+    /**
+     * 客户端最后收到的事件 ID 查询参数，开启消息日志时用于重连补发
+     */
+    public static final String QUERY_LAST_EVENT_ID = "lastEventId";
+
     /**
      * Redis 连接列表
+     *
+     * @deprecated 会话不再各自持有 Redis 连接，订阅由 {@link WebSocketRouter} 共享，该列表始终为空
      */
+    @Deprecated
     protected final ConcurrentHashMap<String, RedisConnection> redisConnectionHashMap = new ConcurrentHashMap<>();
 
     /**
      * MQTT 客户端列表
+     *
+     * @deprecated 会话不再各自持有 MQTT 客户端，订阅由 {@link WebSocketRouter} 共享，该列表始终为空
      */
+    @Deprecated
     protected final ConcurrentHashMap<String, MqttClient> mqttClientHashMap = new ConcurrentHashMap<>();
 
     /**
@@ -64,9 +94,36 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
     protected WebSocketConfig webSocketConfig;
 
     @Autowired
-    protected RedisConnectionFactory redisConnectionFactory;
+    protected WebSocketRouter webSocketRouter;
+
+    @Autowired
+    protected WebSocketSender webSocketSender;
+
+    @Autowired
+    protected WebSocketPresence webSocketPresence;
+
+    @Autowired
+    protected WebSocketMessageStore webSocketMessageStore;
 
     @Autowired
+    protected WebSocketAdmission webSocketAdmission;
+
+    /**
+     * Redis 连接工厂
+     *
+     * @deprecated 处理器不再直接使用 Redis 连接，请改为注入需要的 Bean
+     */
+    @Deprecated
+    @Autowired(required = false)
+    protected RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * MQTT 助手
+     *
+     * @deprecated 处理器不再直接使用 MQTT 客户端，请改为注入需要的 Bean
+     */
+    @Deprecated
+    @Autowired(required = false)
     protected MqttHelper mqttHelper;
 
     @Autowired
@@ -82,17 +139,27 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
     protected final void handleTextMessage(@NonNull WebSocketSession session, @NotNull TextMessage textMessage) {
         final String message = textMessage.getPayload();
         if (webSocketConfig.getPing().equalsIgnoreCase(message)) {
-            try {
-                session.sendMessage(new TextMessage(webSocketConfig.getPong()));
-            } catch (Exception e) {
-                log.error("发送 WebSocket PONG 失败: {}", e.getMessage());
-            }
+            webSocketSender.send(session, new TextMessage(webSocketConfig.getPong()));
             return;
         }
         WebSocketPayload webSocketPayload = Json.parse(message, WebSocketPayload.class);
         onWebSocketPayload(webSocketPayload, session);
     }
 
+    /**
+     * 收到 WebSocket 二进制消息时
+     *
+     * @param session       会话
+     * @param binaryMessage 二进制消息
+     */
+    @Override
+    protected final void handleBinaryMessage(@NonNull WebSocketSession session, @NotNull BinaryMessage binaryMessage) {
+        ByteBuffer buffer = binaryMessage.getPayload();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        onWebSocketPayload(WebSocketFrame.parsePayload(data), session);
+    }
+
     /**
      * 发送 {@code } 事件负载
      *
@@ -101,12 +168,22 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      */
     protected final void sendWebSocketPayload(@NotNull WebSocketSession session,
                                               @NotNull WebSocketPayload webSocketPayload) {
-        try {
-            session.sendMessage(new TextMessage(Json.toString(WebSocketEvent.create(webSocketPayload))));
-        } catch (IOException e) {
-            log.error("发送 WebSocket 消息失败: {}", e.getMessage());
-            throw new ServiceException("发送 WebSocket 消息失败，" + e.getMessage());
-        }
+        sendWebSocketPayload(List.of(session), webSocketPayload);
+    }
+
+    /**
+     * 发送事件负载到多个会话
+     *
+     * @param sessions         会话列表
+     * @param webSocketPayload 事件负载
+     * @apiNote 事件只序列化一次，所有会话共享同一个消息帧
+     */
+    protected final void sendWebSocketPayload(@NotNull Collection<WebSocketSession> sessions,
+                                              @NotNull WebSocketPayload webSocketPayload) {
+        WebSocketFrame frame = new WebSocketFrame(
+                Json.toString(WebSocketEvent.create(webSocketPayload)).getBytes(UTF_8)
+        );
+        sessions.forEach(session -> webSocketSender.send(session, frame));
     }
 
     /**
@@ -118,6 +195,17 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
         log.info("负载类型: {}, 负载内容: {}", webSocketPayload.getType(), webSocketPayload.getData());
     }
 
+    /**
+     * 支持的子协议
+     *
+     * @return 各消息格式的名称
+     * @apiNote 握手时按客户端请求的顺序选择第一个支持的子协议并回传，客户端可以通过子协议 {@code cbor} 代替查询参数选择格式
+     */
+    @Override
+    public final @NotNull List<String> getSubProtocols() {
+        return Arrays.stream(WebSocketFormat.values()).map(WebSocketFormat::getName).toList();
+    }
+
     /**
      * 连接就绪后监听队列
      *
@@ -128,7 +216,10 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
         if (Objects.isNull(session.getUri())) {
             return;
         }
-        String accessToken = session.getUri().getQuery();
+        MultiValueMap<String, String> queryParams = UriComponentsBuilder.fromUri(session.getUri()).build()
+                .getQueryParams();
+        String accessToken = queryParams.containsKey(QUERY_TOKEN) ?
+                queryParams.getFirst(QUERY_TOKEN) : session.getUri().getQuery();
         if (Objects.isNull(accessToken)) {
             log.error("没有传入AccessToken 即将关闭连接");
             closeConnection(session);
@@ -137,14 +228,36 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
         AccessTokenUtil.VerifiedToken verifiedToken = AccessTokenUtil.create()
                 .verify(accessToken, apiConfig.getAccessTokenSecret());
         long userId = verifiedToken.getPayloadId();
+        // 在占用传输资源之前准入，拒绝时告知客户端重试时间
+        CloseStatus rejected = webSocketAdmission.admit(session, userId);
+        if (Objects.nonNull(rejected)) {
+            log.warn("拒绝 WebSocket 连接 用户ID: {}, 原因: {}", userId, rejected.getReason());
+            closeConnection(session, rejected);
+            return;
+        }
+        WebSocketFormat format = WebSocketFormat.of(queryParams.getFirst(QUERY_FORMAT));
+        if (Objects.isNull(format)) {
+            format = WebSocketFormat.of(session.getAcceptedProtocol());
+        }
+        if (Objects.nonNull(format)) {
+            session.getAttributes().put(WebSocketFormat.SESSION_ATTRIBUTE, format);
+        }
+        String lastEventId = queryParams.getFirst(QUERY_LAST_EVENT_ID);
+        boolean replay = webSocketConfig.isMessageStore() && StringUtils.hasText(lastEventId);
+        if (replay) {
+            // 先订阅再补发，补发期间到达的实时事件暂存在发送队列中，排在补发的事件之后
+            webSocketSender.hold(session);
+        }
         switch (webSocketConfig.getSupport()) {
-            case REDIS -> startRedisListener(session, userId);
-            case MQTT -> startMqttListener(session, userId);
+            case REDIS, MQTT, REDIS_STREAM, LOCAL -> startListener(session, userId);
             case NO -> {
             }
             default -> throw new ServiceException("WebSocket 暂不支持");
         }
         userIdHashMap.put(session.getId(), userId);
+        if (replay) {
+            replay(session, userId, lastEventId);
+        }
         TaskUtil.run(() -> afterConnectSuccess(session));
     }
 
@@ -158,83 +271,58 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
     }
 
     /**
-     * 处理监听到的频道消息
+     * 补发客户端断线期间的事件
      *
-     * @param message 消息
-     * @param session 连接
+     * @param session     会话
+     * @param userId      用户 ID
+     * @param lastEventId 客户端最后收到的事件 ID
      */
-    private void onChannelMessage(@NotNull String message, @NonNull WebSocketSession session) {
+    private void replay(@NotNull WebSocketSession session, long userId, @NotNull String lastEventId) {
+        List<WebSocketFrame> frames = List.of();
         try {
-            session.sendMessage(new TextMessage(message));
+            frames = webSocketMessageStore.getAfter(userId, lastEventId);
         } catch (Exception exception) {
-            log.error("消息发送失败", exception);
+            log.error("补发 WebSocket 消息失败", exception);
+        } finally {
+            webSocketSender.resume(session, frames);
         }
     }
 
     /**
-     * 开始监听 Redis 消息
+     * 开始监听全频道和用户频道
      *
      * @param session WebSocket 会话
      * @param userId  用户 ID
      */
-    private void startRedisListener(@NotNull WebSocketSession session, long userId) {
-        final String personalChannel = getRealChannel(CHANNEL_USER_PREFIX + userId);
-        RedisConnection redisConnection = redisConnectionFactory.getConnection();
-        redisConnectionHashMap.put(session.getId(), redisConnection);
-        redisConnection.subscribe((message, pattern) -> {
-                    synchronized (session) {
-                        onChannelMessage(new String(message.getBody(), UTF_8), session);
-                    }
-                },
-                getRealChannel(CHANNEL_ALL).getBytes(UTF_8),
-                personalChannel.getBytes(UTF_8)
-        );
+    private void startListener(@NotNull WebSocketSession session, long userId) {
+        webSocketRouter.subscribe(getRealChannel(CHANNEL_ALL), session);
+        if (webSocketConfig.isPresence()) {
+            // 用户频道只在本地路由，由节点频道转发
+            webSocketRouter.subscribe(getRealChannel(CHANNEL_USER_PREFIX + userId), session, false);
+            webSocketPresence.online(userId);
+            return;
+        }
+        webSocketRouter.subscribe(getRealChannel(CHANNEL_USER_PREFIX + userId), session);
     }
 
     /**
-     * 开始监听 MQTT 消息
+     * 关闭连接
      *
-     * @param session WebSocket 会话
-     * @param userId  用户 ID
+     * @param session 会话
      */
-    private void startMqttListener(@NotNull WebSocketSession session, long userId) {
-        try (MqttClient mqttClient = mqttHelper.createClient()) {
-            mqttClient.setCallback(new MqttCallback() {
-                @Override
-                public void connectionLost(Throwable throwable) {
-                }
-
-                @Override
-                public void messageArrived(String topic, MqttMessage mqttMessage) {
-                    synchronized (session) {
-                        onChannelMessage(new String(mqttMessage.getPayload(), UTF_8), session);
-                    }
-                }
-
-                @Override
-                public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
-
-                }
-            });
-            mqttClient.connect(mqttHelper.createOption());
-            final String personalChannel = CHANNEL_USER_PREFIX + userId;
-            String[] topics = {CHANNEL_ALL, personalChannel};
-            mqttClient.subscribe(topics);
-            mqttClientHashMap.put(session.getId(), mqttClient);
-        } catch (MqttException e) {
-            log.error("监听 MQTT 消息服务失败", e);
-            throw new ServiceException("监听 MQTT 消息服务失败，" + e.getMessage());
-        }
+    private void closeConnection(@NotNull WebSocketSession session) {
+        closeConnection(session, CloseStatus.NORMAL);
     }
 
     /**
      * 关闭连接
      *
      * @param session 会话
+     * @param status  关闭状态
      */
-    private void closeConnection(@NotNull WebSocketSession session) {
+    private void closeConnection(@NotNull WebSocketSession session, @NotNull CloseStatus status) {
         try {
-            session.close();
+            session.close(status);
         } catch (IOException e) {
             log.error("关闭 WebSocket 失败");
         }
@@ -248,13 +336,11 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
             Long userId = userIdHashMap.get(sessionId);
             if (Objects.nonNull(userId)) {
                 userIdHashMap.remove(sessionId);
+                webSocketPresence.offline(userId);
             }
-            if (Objects.nonNull(redisConnectionHashMap.get(sessionId))) {
-                redisConnectionHashMap.remove(sessionId).close();
-            }
-            if (Objects.nonNull(mqttClientHashMap.get(sessionId))) {
-                mqttClientHashMap.remove(sessionId).close();
-            }
+            webSocketRouter.unsubscribeAll(session);
+            webSocketSender.remove(session);
+            webSocketAdmission.release(session);
             TaskUtil.run(() -> afterDisconnect(session, userId));
         } catch (Exception exception) {
             log.error(exception.getMessage());
@@ -281,10 +367,11 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param channel 传入的频道
      * @param session WebSocket 会话
+     * @deprecated 订阅与传输方式无关，请使用 {@link #subscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final void redisSubscribe(@NotNull String channel, WebSocketSession session) {
-        log.info("REDIS开始订阅频道: {}", getRealChannel(channel));
-        getRedisSubscription(session).subscribe(getRealChannel(channel).getBytes(UTF_8));
+        subscribe(channel, session);
     }
 
     /**
@@ -292,15 +379,11 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param channel 传入的频道
      * @param session WebSocket 会话
+     * @deprecated 订阅与传输方式无关，请使用 {@link #subscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final void mqttSubscribe(String channel, WebSocketSession session) {
-        log.info("MQTT 开始订阅频道: {}", getRealChannel(channel));
-        try {
-            getMqttClient(session).subscribe(getRealChannel(channel));
-        } catch (MqttException e) {
-            log.error(e.getMessage(), e);
-            throw new ServiceException("订阅 MQTT 频道失败，" + e.getMessage());
-        }
+        subscribe(channel, session);
     }
 
     /**
@@ -311,7 +394,7 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      */
     @Contract(pure = true)
     protected final @NotNull String getRealChannel(String channel) {
-        return webSocketConfig.getChannelPrefix() + "_" + channel;
+        return webSocketRouter.getRealChannel(channel);
     }
 
     /**
@@ -319,10 +402,11 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param channel 传入的频道
      * @param session WebSocket 会话
+     * @deprecated 取消订阅与传输方式无关，请使用 {@link #unsubscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final void redisUnSubscribe(@NotNull String channel, WebSocketSession session) {
-        log.info("REDIS取消订阅频道: {}", getRealChannel(channel));
-        getRedisSubscription(session).unsubscribe(getRealChannel(channel).getBytes(UTF_8));
+        unsubscribe(channel, session);
     }
 
     /**
@@ -330,15 +414,11 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param channel 传入的频道
      * @param session WebSocket 会话
+     * @deprecated 取消订阅与传输方式无关，请使用 {@link #unsubscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final void mqttUnSubscribe(String channel, WebSocketSession session) {
-        log.info("MQTT取消订阅频道: {}", getRealChannel(channel));
-        try {
-            getMqttClient(session).unsubscribe(getRealChannel(channel));
-        } catch (MqttException e) {
-            log.error(e.getMessage(), e);
-            throw new ServiceException("取消订阅 MQTT 频道失败，" + e.getMessage());
-        }
+        unsubscribe(channel, session);
     }
 
     /**
@@ -346,7 +426,9 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param session WebSocket 会话
      * @return MQTT 客户端
+     * @deprecated 会话不再各自持有 MQTT 客户端，调用时始终抛出异常，请使用 {@link #subscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final MqttClient getMqttClient(@NotNull WebSocketSession session) {
         MqttClient mqttClient = mqttClientHashMap.get(session.getId());
         WEBSOCKET_ERROR.whenNull(mqttClient, "mqttClient is null");
@@ -358,7 +440,9 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      *
      * @param session WebSocket 会话
      * @return Redis 订阅
+     * @deprecated 会话不再各自持有 Redis 连接，调用时始终抛出异常，请使用 {@link #subscribe(String, WebSocketSession)}
      */
+    @Deprecated
     protected final Subscription getRedisSubscription(@NotNull WebSocketSession session) {
         RedisConnection redisConnection = redisConnectionHashMap.get(session.getId());
         WEBSOCKET_ERROR.whenNull(redisConnection, "redisConnection is null");
@@ -370,20 +454,12 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
     /**
      * 订阅
      *
-     * @param channel 频道
+     * @param channel 频道，可以包含 {@code *} 分段订阅通配频道，如 {@code order.*}
      * @param session WebSocket 会话
+     * @apiNote 超过每个会话的订阅上限时抛出异常
      */
     protected final void subscribe(String channel, WebSocketSession session) {
-        switch (webSocketConfig.getSupport()) {
-            case REDIS:
-                redisSubscribe(channel, session);
-                break;
-            case MQTT:
-                mqttSubscribe(channel, session);
-                break;
-            default:
-                break;
-        }
+        webSocketRouter.subscribe(getRealChannel(channel), session);
     }
 
     /**
@@ -393,15 +469,6 @@ public class WebSocketHandler extends TextWebSocketHandler implements MessageLis
      * @param session WebSocket 会话
      */
     protected final void unsubscribe(String channel, WebSocketSession session) {
-        switch (webSocketConfig.getSupport()) {
-            case REDIS:
-                redisUnSubscribe(channel, session);
-                break;
-            case MQTT:
-                mqttUnSubscribe(channel, session);
-                break;
-            default:
-                break;
-        }
+        webSocketRouter.unsubscribe(getRealChannel(channel), session);
     }
 }
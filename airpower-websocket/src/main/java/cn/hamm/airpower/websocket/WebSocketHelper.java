@@ -2,14 +2,16 @@ package cn.hamm.airpower.websocket;
 
 import cn.hamm.airpower.core.Json;
 import cn.hamm.airpower.core.exception.ServiceException;
-import cn.hamm.airpower.mqtt.MqttHelper;
-import cn.hamm.airpower.redis.RedisHelper;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.paho.client.mqttv3.MqttException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
 import static cn.hamm.airpower.websocket.WebSocketHandler.CHANNEL_ALL;
 import static cn.hamm.airpower.websocket.WebSocketHandler.CHANNEL_USER_PREFIX;
 
@@ -25,10 +27,13 @@ public class WebSocketHelper {
     private WebSocketConfig websocketConfig;
 
     @Autowired
-    private RedisHelper redisHelper;
+    private WebSocketRouter webSocketRouter;
+
+    @Autowired
+    private WebSocketPresence webSocketPresence;
 
     @Autowired
-    private MqttHelper mqttHelper;
+    private WebSocketMessageStore webSocketMessageStore;
 
     /**
      * 发布事件负载
@@ -46,7 +51,37 @@ public class WebSocketHelper {
      * @param payload 事件负载
      */
     public final void publishToUser(long userId, WebSocketPayload payload) {
-        publishToChannel(CHANNEL_USER_PREFIX + userId, payload);
+        final WebSocketEvent event = WebSocketEvent.create(payload).setTo(userId);
+        final String message = Json.toString(event);
+        if (websocketConfig.isMessageStore()) {
+            webSocketMessageStore.save(userId, event.getId(), message);
+        }
+        if (!websocketConfig.isPresence()) {
+            publish(webSocketRouter.getRealChannel(CHANNEL_USER_PREFIX + userId), message);
+            return;
+        }
+        List<String> nodes = webSocketPresence.getNodes(userId);
+        if (nodes.isEmpty()) {
+            log.info("用户 {} 不在线，不发布消息", userId);
+            return;
+        }
+        for (String node : nodes) {
+            publish(webSocketPresence.getNodeChannel(node), message);
+        }
+    }
+
+    /**
+     * 批量查询在线用户
+     *
+     * @param userIds 用户 ID 列表
+     * @return 其中在线的用户 ID
+     * @apiNote 需要开启 {@code airpower.websocket.presence}
+     */
+    public final Set<Long> getOnlineUsers(Collection<Long> userIds) {
+        if (!websocketConfig.isPresence()) {
+            throw new ServiceException("没有开启 airpower.websocket.presence, 无法查询在线用户");
+        }
+        return webSocketPresence.getOnlineUsers(userIds);
     }
 
     /**
@@ -56,22 +91,26 @@ public class WebSocketHelper {
      * @param payload 负载
      */
     public final void publishToChannel(String channel, WebSocketPayload payload) {
+        // 只序列化一次，日志和发布共用，节点收到后按字节共享给所有会话
+        publish(webSocketRouter.getRealChannel(channel), Json.toString(WebSocketEvent.create(payload)));
+    }
+
+    /**
+     * 发布事件到真实频道
+     *
+     * @param targetChannel 带前缀的真实频道
+     * @param message       事件 JSON
+     */
+    private void publish(String targetChannel, String message) {
         final String channelPrefix = websocketConfig.getChannelPrefix();
         if (!StringUtils.hasText(channelPrefix)) {
             throw new ServiceException("没有配置 airpower.websocket.channelPrefix, 无法启动WebSocket服务");
         }
-        final WebSocketEvent event = WebSocketEvent.create(payload);
-        final String targetChannel = channelPrefix + "_" + channel;
-        log.info("发布消息到频道 {} : {}", targetChannel, Json.toString(event));
-        try {
-            switch (websocketConfig.getSupport()) {
-                case REDIS -> redisHelper.publish(targetChannel, Json.toString(event));
-                case MQTT -> mqttHelper.publish(targetChannel, Json.toString(event));
-                default -> throw new ServiceException("WebSocket 暂不支持");
-            }
-        } catch (MqttException e) {
-            log.error("发布消息失败", e);
-            throw new ServiceException("发布消息失败，" + e.getMessage());
+        WebSocketTransport transport = webSocketRouter.getTransport();
+        if (Objects.isNull(transport)) {
+            throw new ServiceException("WebSocket 暂不支持");
         }
+        log.info("发布消息到频道 {} : {}", targetChannel, message);
+        transport.publish(targetChannel, message);
     }
 }
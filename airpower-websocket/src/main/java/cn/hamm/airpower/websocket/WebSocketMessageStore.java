@@ -0,0 +1,98 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.redis.RedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <h1>WebSocket 用户消息日志</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个用户一个有界的 Redis Stream，按发布顺序记录发给该用户的事件，
+ * 客户端重连时传入最后收到的事件 ID，只补发之后的事件
+ */
+@Slf4j
+@Component
+public class WebSocketMessageStore {
+    /**
+     * 用户消息日志前缀
+     */
+    private static final String STORE_PREFIX = "WEBSOCKET_STORE_";
+
+    /**
+     * 事件 ID 字段
+     */
+    private static final String FIELD_ID = "id";
+
+    /**
+     * 事件字段
+     */
+    private static final String FIELD_EVENT = "event";
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private RedisHelper redisHelper;
+
+    /**
+     * 记录发给用户的事件
+     *
+     * @param userId  用户 ID
+     * @param eventId 事件 ID
+     * @param message 事件 JSON
+     */
+    public final void save(long userId, @NotNull String eventId, @NotNull String message) {
+        redisHelper.addToStream(
+                getStoreKey(userId),
+                Map.of(FIELD_ID, eventId, FIELD_EVENT, message),
+                webSocketConfig.getMessageStoreSize(),
+                webSocketConfig.getMessageStoreSecond()
+        );
+    }
+
+    /**
+     * 获取指定事件之后发给用户的事件
+     *
+     * @param userId      用户 ID
+     * @param lastEventId 客户端最后收到的事件 ID
+     * @return 事件帧，按发布顺序排列
+     * @apiNote 找不到该事件时（已被裁剪或过期）返回日志中的所有事件
+     */
+    public final @NotNull List<WebSocketFrame> getAfter(long userId, @NotNull String lastEventId) {
+        List<Map<String, String>> messages = redisHelper.getStream(getStoreKey(userId));
+        int start = 0;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (lastEventId.equals(messages.get(i).get(FIELD_ID))) {
+                start = i + 1;
+                break;
+            }
+        }
+        if (start == 0 && !messages.isEmpty()) {
+            log.info("用户 {} 的事件 {} 不在消息日志中，补发全部 {} 条", userId, lastEventId, messages.size());
+        }
+        List<WebSocketFrame> frames = new ArrayList<>(messages.size() - start);
+        for (Map<String, String> message : messages.subList(start, messages.size())) {
+            frames.add(new WebSocketFrame(message.get(FIELD_EVENT).getBytes(UTF_8)));
+        }
+        return frames;
+    }
+
+    /**
+     * 获取用户消息日志的 Key
+     *
+     * @param userId 用户 ID
+     * @return Key
+     */
+    private @NotNull String getStoreKey(long userId) {
+        return webSocketConfig.getChannelPrefix() + STORE_PREFIX + userId;
+    }
+}
@@ -20,4 +20,11 @@ public class WebSocketPayload {
      * 负载数据
      */
     private String data;
+
+    /**
+     * 负载合并键
+     *
+     * @apiNote 开启合并时，同一会话排队中类型和合并键都相同的负载只发送最新的一条
+     */
+    private String key;
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.DateTimeUtil;
+import cn.hamm.airpower.core.exception.ServiceException;
+import cn.hamm.airpower.redis.RedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static cn.hamm.airpower.websocket.WebSocketHandler.CHANNEL_USER_PREFIX;
+
+/**
+ * <h1>WebSocket 集群在线状态</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个用户一个 Redis 哈希，字段为持有该用户连接的节点，值为节点最近一次心跳的时间。
+ * 节点订阅自己的节点频道，发给用户的事件只发布到持有该用户的节点，用户不在线时不发布
+ */
+@Slf4j
+@Component
+public class WebSocketPresence implements DisposableBean {
+    /**
+     * 节点频道前缀
+     */
+    public static final String CHANNEL_NODE_PREFIX = "WEBSOCKET_NODE_";
+
+    /**
+     * 用户在线哈希前缀
+     */
+    private static final String PRESENCE_PREFIX = "WEBSOCKET_PRESENCE_";
+
+    /**
+     * 心跳超过多少个周期视为节点离线
+     */
+    private static final int HEARTBEAT_TOLERANCE = 3;
+
+    /**
+     * 当前节点 ID
+     */
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+
+    /**
+     * 本节点在线用户的连接数
+     */
+    private final ConcurrentMap<Long, Integer> localUserMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private WebSocketRouter webSocketRouter;
+
+    @Autowired
+    private RedisHelper redisHelper;
+
+    /**
+     * 心跳线程
+     */
+    private volatile ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * 获取当前节点 ID
+     *
+     * @return 节点 ID
+     */
+    public final @NotNull String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 获取节点频道
+     *
+     * @param nodeId 节点 ID
+     * @return 带前缀的真实频道
+     */
+    public final @NotNull String getNodeChannel(@NotNull String nodeId) {
+        return webSocketRouter.getRealChannel(CHANNEL_NODE_PREFIX + nodeId);
+    }
+
+    /**
+     * 用户在本节点上线
+     *
+     * @param userId 用户 ID
+     * @apiNote Redis 写入在该用户的计数更新中完成，与同一用户的下线串行执行，
+     * 不会出现计数已恢复而 Redis 字段被并发的下线删除的情况
+     */
+    public final void online(long userId) {
+        start();
+        localUserMap.compute(userId, (key, count) -> {
+            if (Objects.nonNull(count)) {
+                return count + 1;
+            }
+            redisHelper.setHashField(List.of(getPresenceKey(userId)), nodeId,
+                    String.valueOf(System.currentTimeMillis()), getExpireSecond());
+            return 1;
+        });
+    }
+
+    /**
+     * 用户在本节点下线
+     *
+     * @param userId 用户 ID
+     * @apiNote Redis 删除在该用户的计数更新中完成，与同一用户的上线串行执行
+     */
+    public final void offline(long userId) {
+        localUserMap.computeIfPresent(userId, (key, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            try {
+                redisHelper.deleteHashField(getPresenceKey(userId), nodeId);
+            } catch (Exception exception) {
+                // 不再刷新心跳，字段在过期后自然失效
+                log.warn("清理 WebSocket 在线状态失败: {}", exception.getMessage());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 获取持有用户连接的节点
+     *
+     * @param userId 用户 ID
+     * @return 节点 ID 列表，用户不在线时为空
+     */
+    public final @NotNull List<String> getNodes(long userId) {
+        return getAliveNodes(redisHelper.getHashes(List.of(getPresenceKey(userId))).get(0));
+    }
+
+    /**
+     * 用户是否在线
+     *
+     * @param userId 用户 ID
+     * @return 是否在线
+     */
+    public final boolean isOnline(long userId) {
+        return !getNodes(userId).isEmpty();
+    }
+
+    /**
+     * 批量查询在线用户
+     *
+     * @param userIds 用户 ID 列表
+     * @return 其中在线的用户 ID
+     * @apiNote 所有用户在一次 Redis 往返中查询
+     */
+    public final @NotNull Set<Long> getOnlineUsers(@NotNull Collection<Long> userIds) {
+        List<Long> userIdList = List.copyOf(new LinkedHashSet<>(userIds));
+        List<Map<String, String>> hashes = redisHelper.getHashes(
+                userIdList.stream().map(this::getPresenceKey).toList()
+        );
+        Set<Long> onlineUsers = new LinkedHashSet<>();
+        for (int i = 0; i < userIdList.size(); i++) {
+            if (!getAliveNodes(hashes.get(i)).isEmpty()) {
+                onlineUsers.add(userIdList.get(i));
+            }
+        }
+        return onlineUsers;
+    }
+
+    /**
+     * 过滤心跳未超时的节点
+     *
+     * @param hash 用户在线哈希
+     * @return 节点 ID 列表
+     */
+    private @NotNull List<String> getAliveNodes(@NotNull Map<String, String> hash) {
+        final long deadline = System.currentTimeMillis() - getExpireSecond() * DateTimeUtil.MILLISECONDS_PER_SECOND;
+        List<String> nodes = new ArrayList<>(hash.size());
+        hash.forEach((node, heartbeat) -> {
+            try {
+                if (Long.parseLong(heartbeat) >= deadline) {
+                    nodes.add(node);
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        });
+        return nodes;
+    }
+
+    /**
+     * 处理节点频道的消息
+     *
+     * @param channel 频道
+     * @param message 消息体
+     */
+    private void onNodeMessage(String channel, byte @NotNull [] message) {
+        WebSocketFrame frame = new WebSocketFrame(message);
+        Long to = frame.getTo();
+        if (Objects.isNull(to)) {
+            log.warn("节点频道收到没有接收方的事件: {}", channel);
+            return;
+        }
+        webSocketRouter.dispatch(webSocketRouter.getRealChannel(CHANNEL_USER_PREFIX + to), frame);
+    }
+
+    /**
+     * 订阅节点频道并开始心跳
+     */
+    private void start() {
+        if (Objects.nonNull(heartbeatExecutor)) {
+            return;
+        }
+        synchronized (this) {
+            if (Objects.nonNull(heartbeatExecutor)) {
+                return;
+            }
+            WebSocketTransport transport = webSocketRouter.getTransport();
+            if (Objects.isNull(transport)) {
+                throw new ServiceException("WebSocket 暂不支持");
+            }
+            transport.subscribe(getNodeChannel(nodeId), this::onNodeMessage);
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "websocket-presence");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(webSocketConfig.getPresenceHeartbeatSecond(), 1);
+            executor.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.SECONDS);
+            heartbeatExecutor = executor;
+        }
+    }
+
+    /**
+     * 刷新本节点所有在线用户的心跳
+     *
+     * @apiNote 批量写入期间下线的用户会被重新写入，写入后在该用户的计数更新中再次确认并删除
+     */
+    private void heartbeat() {
+        try {
+            List<Long> userIds = List.copyOf(localUserMap.keySet());
+            redisHelper.setHashField(
+                    userIds.stream().map(this::getPresenceKey).toList(),
+                    nodeId,
+                    String.valueOf(System.currentTimeMillis()),
+                    getExpireSecond()
+            );
+            userIds.forEach(userId -> localUserMap.compute(userId, (key, count) -> {
+                if (Objects.isNull(count)) {
+                    redisHelper.deleteHashField(getPresenceKey(userId), nodeId);
+                }
+                return count;
+            }));
+        } catch (Exception exception) {
+            log.error("刷新 WebSocket 在线状态失败", exception);
+        }
+    }
+
+    /**
+     * 获取用户在线哈希的 Key
+     *
+     * @param userId 用户 ID
+     * @return Key
+     */
+    private @NotNull String getPresenceKey(long userId) {
+        return webSocketConfig.getChannelPrefix() + PRESENCE_PREFIX + userId;
+    }
+
+    /**
+     * 获取在线状态的过期时间
+     *
+     * @return 秒
+     */
+    private long getExpireSecond() {
+        return (long) Math.max(webSocketConfig.getPresenceHeartbeatSecond(), 1) * HEARTBEAT_TOLERANCE;
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.isNull(heartbeatExecutor)) {
+            return;
+        }
+        heartbeatExecutor.shutdown();
+        localUserMap.keySet().forEach(userId -> {
+            try {
+                redisHelper.deleteHashField(getPresenceKey(userId), nodeId);
+            } catch (Exception exception) {
+                log.warn("清理 WebSocket 在线状态失败: {}", exception.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,264 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.exception.ServiceException;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static cn.hamm.airpower.exception.Errors.WEBSOCKET_ERROR;
+
+/**
+ * <h1>WebSocket 本地路由</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 维护本节点频道到会话的路由表，会话的订阅和取消订阅都只修改路由表，
+ * 频道只在本节点首个会话订阅时向传输层订阅一次，收到的消息按路由表扇出到本地会话。
+ * 含有 {@code *} 分段的通配频道（如 {@code order.*}）记录在前缀树中，分发时在本地匹配
+ */
+@Slf4j
+@Component
+public class WebSocketRouter {
+    /**
+     * 频道的路由
+     */
+    private final ConcurrentMap<String, Route> channelRouteMap = new ConcurrentHashMap<>();
+
+    /**
+     * 会话订阅的频道
+     */
+    private final ConcurrentMap<String, Set<String>> sessionChannelMap = new ConcurrentHashMap<>();
+
+    /**
+     * 通配频道订阅的会话
+     */
+    private final WebSocketChannelTrie channelTrie = new WebSocketChannelTrie();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private WebSocketSender webSocketSender;
+
+    @Autowired
+    private RedisWebSocketTransport redisWebSocketTransport;
+
+    @Autowired
+    private MqttWebSocketTransport mqttWebSocketTransport;
+
+    @Autowired
+    private RedisStreamWebSocketTransport redisStreamWebSocketTransport;
+
+    @Autowired
+    private LocalWebSocketTransport localWebSocketTransport;
+
+    /**
+     * 获取当前的传输
+     *
+     * @return 传输，不支持时返回 {@code null}
+     */
+    public final @Nullable WebSocketTransport getTransport() {
+        return switch (webSocketConfig.getSupport()) {
+            case REDIS -> redisWebSocketTransport;
+            case MQTT -> mqttWebSocketTransport;
+            case REDIS_STREAM -> redisStreamWebSocketTransport;
+            case LOCAL -> localWebSocketTransport;
+            default -> null;
+        };
+    }
+
+    /**
+     * 获取真实的频道
+     *
+     * @param channel 传入的频道
+     * @return 带前缀的真实频道
+     */
+    public final @NotNull String getRealChannel(String channel) {
+        return webSocketConfig.getChannelPrefix() + "_" + channel;
+    }
+
+    /**
+     * 会话订阅频道
+     *
+     * @param channel 带前缀的真实频道
+     * @param session 会话
+     */
+    public final void subscribe(@NotNull String channel, @NotNull WebSocketSession session) {
+        subscribe(channel, session, true);
+    }
+
+    /**
+     * 会话订阅频道
+     *
+     * @param channel   带前缀的真实频道
+     * @param session   会话
+     * @param transport 是否向传输层订阅，{@code false} 时只加入本地路由表，由其他频道转发到本频道
+     */
+    public final void subscribe(@NotNull String channel, @NotNull WebSocketSession session, boolean transport) {
+        WebSocketTransport webSocketTransport = getTransport();
+        if (Objects.isNull(webSocketTransport)) {
+            return;
+        }
+        Set<String> channels = sessionChannelMap.computeIfAbsent(session.getId(), id -> ConcurrentHashMap.newKeySet());
+        int limit = webSocketConfig.getMaxSubscriptionsPerSession();
+        if (limit > 0 && !channels.contains(channel) && channels.size() >= limit) {
+            throw new ServiceException(WEBSOCKET_ERROR, "订阅的频道数量超过上限 " + limit);
+        }
+        channels.add(channel);
+        if (WebSocketChannelTrie.isPattern(channel)) {
+            if (channelTrie.add(channel, session) && transport) {
+                webSocketTransport.subscribePattern(channel, this::dispatchPattern);
+            }
+            return;
+        }
+        while (true) {
+            Route route = channelRouteMap.computeIfAbsent(channel, key -> new Route());
+            // 传输层的订阅是网络往返，只锁定本频道的路由，不占用路由表的锁，不阻塞分发和其他频道
+            synchronized (route) {
+                if (route.closed) {
+                    // 路由正在被移除，等移除完成后重新创建
+                    continue;
+                }
+                route.sessions.add(session);
+                if (transport && !route.subscribed) {
+                    webSocketTransport.subscribe(channel, this::dispatch);
+                    route.subscribed = true;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 会话取消订阅频道
+     *
+     * @param channel 带前缀的真实频道
+     * @param session 会话
+     */
+    public final void unsubscribe(@NotNull String channel, @NotNull WebSocketSession session) {
+        Set<String> channels = sessionChannelMap.get(session.getId());
+        if (Objects.nonNull(channels)) {
+            channels.remove(channel);
+        }
+        removeSession(channel, session);
+    }
+
+    /**
+     * 会话取消订阅所有频道
+     *
+     * @param session 会话
+     * @apiNote 按会话记录的频道逐个移除，不扫描整个路由表
+     */
+    public final void unsubscribeAll(@NotNull WebSocketSession session) {
+        Set<String> channels = sessionChannelMap.remove(session.getId());
+        if (Objects.isNull(channels)) {
+            return;
+        }
+        channels.forEach(channel -> removeSession(channel, session));
+    }
+
+    /**
+     * 分发频道消息到本地会话
+     *
+     * @param channel 带前缀的真实频道
+     * @param message 消息体
+     */
+    public final void dispatch(@NotNull String channel, byte @NotNull [] message) {
+        // 同一条消息只构建一次，每种格式只编码一次，所有会话共享
+        dispatch(channel, new WebSocketFrame(message));
+    }
+
+    /**
+     * 分发事件帧到本地会话
+     *
+     * @param channel 带前缀的真实频道
+     * @param frame   事件帧
+     */
+    public final void dispatch(@NotNull String channel, @NotNull WebSocketFrame frame) {
+        Route route = channelRouteMap.get(channel);
+        Set<WebSocketSession> sessions = Objects.isNull(route) ? null : route.sessions;
+        if (channelTrie.isEmpty()) {
+            if (Objects.nonNull(sessions)) {
+                sessions.forEach(session -> webSocketSender.send(session, frame));
+            }
+            return;
+        }
+        // 同时订阅了频道和匹配的通配频道的会话只发送一次
+        Set<WebSocketSession> targets = Objects.isNull(sessions) ? new HashSet<>() : new HashSet<>(sessions);
+        channelTrie.match(channel, targets::add);
+        targets.forEach(session -> webSocketSender.send(session, frame));
+    }
+
+    /**
+     * 分发通配频道收到的消息到本地会话
+     *
+     * @param channel 消息实际的频道
+     * @param message 消息体
+     * @apiNote 只分发给前缀树匹配到的会话，按频道订阅的会话由传输层的频道监听分发
+     */
+    private void dispatchPattern(@NotNull String channel, byte @NotNull [] message) {
+        WebSocketFrame frame = new WebSocketFrame(message);
+        channelTrie.match(channel, session -> webSocketSender.send(session, frame));
+    }
+
+    /**
+     * 从频道中移除会话，频道没有会话时取消传输层订阅
+     *
+     * @param channel 带前缀的真实频道
+     * @param session 会话
+     */
+    private void removeSession(@NotNull String channel, @NotNull WebSocketSession session) {
+        if (WebSocketChannelTrie.isPattern(channel)) {
+            WebSocketTransport transport = getTransport();
+            if (channelTrie.remove(channel, session) && Objects.nonNull(transport)) {
+                transport.unsubscribePattern(channel);
+            }
+            return;
+        }
+        Route route = channelRouteMap.get(channel);
+        if (Objects.isNull(route)) {
+            return;
+        }
+        synchronized (route) {
+            route.sessions.remove(session);
+            if (route.closed || !route.sessions.isEmpty()) {
+                return;
+            }
+            route.closed = true;
+            WebSocketTransport transport = getTransport();
+            if (route.subscribed && Objects.nonNull(transport)) {
+                transport.unsubscribe(channel);
+            }
+            // 取消订阅完成后才移除路由，新的路由一定在取消订阅之后才向传输层订阅
+            channelRouteMap.remove(channel, route);
+        }
+    }
+
+    /**
+     * <h2>频道路由</h2>
+     */
+    private static class Route {
+        /**
+         * 订阅的会话
+         */
+        private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+        /**
+         * 是否已向传输层订阅
+         */
+        private boolean subscribed = false;
+
+        /**
+         * 是否已移除
+         */
+        private boolean closed = false;
+    }
+}
@@ -0,0 +1,669 @@
+package cn.hamm.airpower.websocket;
+
+import cn.hamm.airpower.core.TaskUtil;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>WebSocket 异步发送</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个会话一个有界发送队列，由共享的发送线程池排空，
+ * 慢客户端只会堆积自己的队列，不会阻塞 Redis/MQTT 监听线程和其他会话。
+ * 开启批量窗口后，窗口内排队的事件合并为一个数组帧发送；开启合并后，相同合并键的事件只保留最新的一条。
+ * 巡检线程定期检查正在发送的消息，超过发送时间上限的会话直接断开，释放被阻塞的发送线程
+ */
+@Slf4j
+@Component
+public class WebSocketSender implements DisposableBean {
+    /**
+     * 每次调度最多连续发送的消息数，避免积压的会话长期占用发送线程
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    /**
+     * 发送超时巡检的最大间隔（毫秒）
+     */
+    private static final long WATCHDOG_MAX_PERIOD = 1000;
+
+    /**
+     * 发送超时巡检的最小间隔（毫秒）
+     */
+    private static final long WATCHDOG_MIN_PERIOD = 100;
+
+    /**
+     * 会话的发送队列
+     */
+    private final ConcurrentMap<String, SessionQueue> queueMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    /**
+     * 发送线程池
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * 批量窗口和发送超时巡检的调度线程
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * 发送超时巡检任务
+     */
+    private volatile ScheduledFuture<?> watchdog;
+
+    /**
+     * 发送事件帧
+     *
+     * @param session 会话
+     * @param frame   事件帧
+     * @apiNote 只入队，不阻塞调用线程，按会话的格式在发送时编码
+     */
+    public final void send(@NotNull WebSocketSession session, @NotNull WebSocketFrame frame) {
+        SessionQueue sessionQueue = getQueue(session);
+        if (Objects.isNull(sessionQueue)) {
+            return;
+        }
+        String key = webSocketConfig.isCoalesce() ? frame.getCoalesceKey() : null;
+        sessionQueue.offer(new Entry(frame, null, key));
+    }
+
+    /**
+     * 发送消息
+     *
+     * @param session 会话
+     * @param message 消息
+     * @apiNote 只入队，不阻塞调用线程，不参与批量和合并
+     */
+    public final void send(@NotNull WebSocketSession session, @NotNull WebSocketMessage<?> message) {
+        SessionQueue sessionQueue = getQueue(session);
+        if (Objects.nonNull(sessionQueue)) {
+            sessionQueue.offer(new Entry(null, message, null));
+        }
+    }
+
+    /**
+     * 暂停发送会话的消息
+     *
+     * @param session 会话
+     * @apiNote 暂停期间的消息正常入队，直到 {@link #resume(WebSocketSession, List)} 时才开始发送
+     */
+    public final void hold(@NotNull WebSocketSession session) {
+        SessionQueue sessionQueue = getQueue(session);
+        if (Objects.nonNull(sessionQueue)) {
+            sessionQueue.hold();
+        }
+    }
+
+    /**
+     * 在暂停期间排队的消息之前插入事件帧并恢复发送
+     *
+     * @param session 会话
+     * @param frames  要先发送的事件帧，按顺序排列
+     * @apiNote 用于重连补发：补发的事件排在补发期间收到的实时事件之前，事件 ID 相同的实时事件不再重复发送
+     */
+    public final void resume(@NotNull WebSocketSession session, @NotNull List<WebSocketFrame> frames) {
+        SessionQueue sessionQueue = queueMap.get(session.getId());
+        if (Objects.nonNull(sessionQueue)) {
+            sessionQueue.resume(frames);
+        }
+    }
+
+    /**
+     * 移除会话的发送队列
+     *
+     * @param session 会话
+     */
+    public final void remove(@NotNull WebSocketSession session) {
+        SessionQueue sessionQueue = queueMap.remove(session.getId());
+        if (Objects.nonNull(sessionQueue)) {
+            sessionQueue.clear();
+        }
+    }
+
+    /**
+     * 获取所有会话排队中的消息总数
+     *
+     * @return 消息数
+     */
+    public final int getQueueSize() {
+        return queueMap.values().stream().mapToInt(SessionQueue::size).sum();
+    }
+
+    /**
+     * 获取各会话的发送统计
+     *
+     * @return 发送统计
+     */
+    public final @NotNull List<Statistic> getStatistics() {
+        return queueMap.values().stream()
+                .map(sessionQueue -> new Statistic()
+                        .setSessionId(sessionQueue.session.getId())
+                        .setQueueSize(sessionQueue.size())
+                        .setSent(sessionQueue.sent.get())
+                        .setDropped(sessionQueue.dropped.get())
+                        .setCoalesced(sessionQueue.coalesced.get())
+                )
+                .toList();
+    }
+
+    /**
+     * 获取会话的发送队列
+     *
+     * @param session 会话
+     * @return 发送队列，会话已关闭时返回 {@code null}
+     * @apiNote 广播或补发可能与连接关闭并发，关闭后不再创建队列；
+     * 创建后会话已关闭时由本方法移除，避免在 {@link #remove(WebSocketSession)} 之后重新创建的队列无人清理
+     */
+    private @Nullable SessionQueue getQueue(@NotNull WebSocketSession session) {
+        SessionQueue sessionQueue = queueMap.get(session.getId());
+        if (Objects.nonNull(sessionQueue)) {
+            return sessionQueue;
+        }
+        if (!session.isOpen()) {
+            return null;
+        }
+        sessionQueue = queueMap.computeIfAbsent(session.getId(), id -> new SessionQueue(session));
+        if (!session.isOpen()) {
+            remove(session);
+            return null;
+        }
+        startWatchdog();
+        return sessionQueue;
+    }
+
+    /**
+     * 启动发送超时巡检
+     */
+    private void startWatchdog() {
+        if (Objects.nonNull(watchdog)) {
+            return;
+        }
+        synchronized (this) {
+            if (Objects.isNull(watchdog)) {
+                long period = Math.min(Math.max(webSocketConfig.getSendTimeLimit() / 2, WATCHDOG_MIN_PERIOD),
+                        WATCHDOG_MAX_PERIOD);
+                watchdog = getScheduler().scheduleWithFixedDelay(this::checkTimeout, period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 断开发送超时的会话
+     *
+     * @apiNote 关闭会话使阻塞中的写入失败，发送线程随之释放
+     */
+    private void checkTimeout() {
+        long now = System.currentTimeMillis();
+        for (SessionQueue sessionQueue : queueMap.values()) {
+            long startTime = sessionQueue.sendStartTime;
+            if (startTime > 0 && now - startTime > webSocketConfig.getSendTimeLimit() && !sessionQueue.closed) {
+                log.warn("会话 {} 发送超时，即将断开连接", sessionQueue.session.getId());
+                sessionQueue.clear();
+                TaskUtil.run(sessionQueue::closeSession);
+            }
+        }
+    }
+
+    /**
+     * 获取调度线程
+     *
+     * @return 调度线程
+     */
+    private ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService scheduledExecutorService = scheduler;
+        if (Objects.nonNull(scheduledExecutorService)) {
+            return scheduledExecutorService;
+        }
+        synchronized (this) {
+            if (Objects.isNull(scheduler)) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-sender-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return scheduler;
+        }
+    }
+
+    /**
+     * 获取发送线程池
+     *
+     * @return 线程池
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService executorService = executor;
+        if (Objects.nonNull(executorService)) {
+            return executorService;
+        }
+        synchronized (this) {
+            if (Objects.isNull(executor)) {
+                int threads = webSocketConfig.getSendThreads();
+                if (threads <= 0) {
+                    threads = Runtime.getRuntime().availableProcessors() * 2;
+                }
+                AtomicInteger index = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-sender-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return executor;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdown();
+        }
+        if (Objects.nonNull(executor)) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * <h2>会话发送统计</h2>
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Statistic {
+        /**
+         * 会话 ID
+         */
+        private String sessionId;
+
+        /**
+         * 排队中的消息数
+         */
+        private int queueSize;
+
+        /**
+         * 已发送的消息数
+         */
+        private long sent;
+
+        /**
+         * 因溢出丢弃的消息数
+         */
+        private long dropped;
+
+        /**
+         * 被更新的事件覆盖而未发送的事件数
+         */
+        private long coalesced;
+    }
+
+    /**
+     * <h2>排队的消息</h2>
+     */
+    private static class Entry {
+        /**
+         * 原始消息，不参与批量和合并
+         */
+        private final WebSocketMessage<?> message;
+
+        /**
+         * 合并键
+         */
+        private final String key;
+
+        /**
+         * 事件帧，合并时替换为最新的事件
+         */
+        private WebSocketFrame frame;
+
+        private Entry(WebSocketFrame frame, WebSocketMessage<?> message, String key) {
+            this.frame = frame;
+            this.message = message;
+            this.key = key;
+        }
+
+        /**
+         * 字节数
+         *
+         * @return 字节数
+         */
+        private int length() {
+            return Objects.nonNull(frame) ? frame.getLength() : message.getPayloadLength();
+        }
+    }
+
+    /**
+     * <h2>会话的发送队列</h2>
+     */
+    private class SessionQueue implements Runnable {
+        /**
+         * 会话
+         */
+        private final WebSocketSession session;
+
+        /**
+         * 排队中的消息
+         */
+        private final Deque<Entry> queue = new ArrayDeque<>();
+
+        /**
+         * 排队中带合并键的消息
+         */
+        private final Map<String, Entry> keyedMap = new HashMap<>();
+
+        /**
+         * 已发送的消息数
+         */
+        private final AtomicLong sent = new AtomicLong();
+
+        /**
+         * 因溢出丢弃的消息数
+         */
+        private final AtomicLong dropped = new AtomicLong();
+
+        /**
+         * 被合并的消息数
+         */
+        private final AtomicLong coalesced = new AtomicLong();
+
+        /**
+         * 排队中的字节数
+         */
+        private long bufferedBytes = 0;
+
+        /**
+         * 是否已提交到发送线程或批量窗口
+         */
+        private boolean scheduled = false;
+
+        /**
+         * 是否暂停发送
+         */
+        private boolean held = false;
+
+        /**
+         * 等待中的批量窗口
+         */
+        private ScheduledFuture<?> windowFuture;
+
+        /**
+         * 是否已关闭
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * 当前消息开始发送的时间，{@code 0} 为空闲
+         */
+        private volatile long sendStartTime = 0;
+
+        private SessionQueue(WebSocketSession session) {
+            this.session = session;
+        }
+
+        /**
+         * 消息入队
+         *
+         * @param entry 消息
+         */
+        private void offer(@NotNull Entry entry) {
+            boolean flushNow = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                long startTime = sendStartTime;
+                if (startTime > 0 && System.currentTimeMillis() - startTime > webSocketConfig.getSendTimeLimit()) {
+                    log.warn("会话 {} 发送超时，即将断开连接", session.getId());
+                    clear();
+                } else {
+                    int length = entry.length();
+                    Entry pending = Objects.isNull(entry.key) ? null : keyedMap.get(entry.key);
+                    if (Objects.nonNull(pending)) {
+                        // 最新的事件覆盖排队中的旧事件，保留原位置
+                        bufferedBytes += length - pending.length();
+                        pending.frame = entry.frame;
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                    while (!queue.isEmpty() && isOverflow(length)) {
+                        if (webSocketConfig.getSendOverflowPolicy() == WebSocketOverflowPolicy.DISCONNECT) {
+                            log.warn("会话 {} 发送队列溢出，即将断开连接", session.getId());
+                            clear();
+                            break;
+                        }
+                        remove(queue.pollFirst());
+                        dropped.incrementAndGet();
+                    }
+                    if (!closed) {
+                        queue.addLast(entry);
+                        if (Objects.nonNull(entry.key)) {
+                            keyedMap.put(entry.key, entry);
+                        }
+                        bufferedBytes += length;
+                        if (!scheduled && !held) {
+                            scheduled = true;
+                            int window = webSocketConfig.getBatchWindowMillis();
+                            if (window <= 0) {
+                                flushNow = true;
+                            } else {
+                                windowFuture = getScheduler().schedule(this::flush, window, TimeUnit.MILLISECONDS);
+                            }
+                        } else if (Objects.nonNull(windowFuture)
+                                && queue.size() >= webSocketConfig.getBatchMaxSize()
+                                && windowFuture.cancel(false)) {
+                            // 攒够一批，不再等待窗口结束
+                            flushNow = true;
+                        }
+                    }
+                }
+            }
+            if (closed) {
+                closeSession();
+                return;
+            }
+            if (flushNow) {
+                flush();
+            }
+        }
+
+        /**
+         * 暂停发送
+         */
+        private synchronized void hold() {
+            held = true;
+        }
+
+        /**
+         * 插入事件帧并恢复发送
+         *
+         * @param frames 要先发送的事件帧
+         */
+        private void resume(@NotNull List<WebSocketFrame> frames) {
+            synchronized (this) {
+                if (closed || !held) {
+                    return;
+                }
+                held = false;
+                Set<String> ids = new HashSet<>();
+                frames.forEach(frame -> {
+                    if (Objects.nonNull(frame.getId())) {
+                        ids.add(frame.getId());
+                    }
+                });
+                // 补发的事件已包含的实时事件不再发送
+                queue.removeIf(entry -> {
+                    boolean duplicated = Objects.nonNull(entry.frame) && Objects.nonNull(entry.frame.getId())
+                            && ids.contains(entry.frame.getId());
+                    if (duplicated) {
+                        remove(entry);
+                    }
+                    return duplicated;
+                });
+                for (int i = frames.size() - 1; i >= 0; i--) {
+                    Entry entry = new Entry(frames.get(i), null, null);
+                    queue.addFirst(entry);
+                    bufferedBytes += entry.length();
+                }
+                if (scheduled || queue.isEmpty()) {
+                    return;
+                }
+                scheduled = true;
+            }
+            flush();
+        }
+
+        /**
+         * 提交到发送线程
+         */
+        private void flush() {
+            synchronized (this) {
+                windowFuture = null;
+            }
+            getExecutor().execute(this);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                List<Entry> entries;
+                synchronized (this) {
+                    entries = poll();
+                    if (entries.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                WebSocketMessage<?> message = toMessage(entries);
+                sendStartTime = System.currentTimeMillis();
+                try {
+                    if (session.isOpen()) {
+                        session.sendMessage(message);
+                        sent.addAndGet(entries.size());
+                    }
+                } catch (Exception exception) {
+                    log.error("消息发送失败", exception);
+                } finally {
+                    sendStartTime = 0;
+                }
+            }
+            // 还有积压，重新排队让出线程
+            getExecutor().execute(this);
+        }
+
+        /**
+         * 取出下一次要发送的消息
+         *
+         * @return 单条原始消息，或开启批量窗口时连续的多个事件帧
+         */
+        private @NotNull List<Entry> poll() {
+            Entry first = queue.pollFirst();
+            if (Objects.isNull(first)) {
+                return List.of();
+            }
+            remove(first);
+            if (Objects.isNull(first.frame) || webSocketConfig.getBatchWindowMillis() <= 0) {
+                return List.of(first);
+            }
+            List<Entry> entries = new ArrayList<>();
+            entries.add(first);
+            while (entries.size() < webSocketConfig.getBatchMaxSize()
+                    && Objects.nonNull(queue.peekFirst())
+                    && Objects.nonNull(queue.peekFirst().frame)) {
+                Entry entry = queue.pollFirst();
+                remove(entry);
+                entries.add(entry);
+            }
+            return entries;
+        }
+
+        /**
+         * 编码为会话格式的消息
+         *
+         * @param entries 消息
+         * @return WebSocket 消息
+         */
+        private @NotNull WebSocketMessage<?> toMessage(@NotNull List<Entry> entries) {
+            Entry first = entries.get(0);
+            if (Objects.isNull(first.frame)) {
+                return first.message;
+            }
+            WebSocketFormat format = WebSocketFormat.of(session);
+            if (entries.size() == 1) {
+                return first.frame.getMessage(format);
+            }
+            return WebSocketFrame.batch(entries.stream().map(entry -> entry.frame).toList()).getMessage(format);
+        }
+
+        /**
+         * 移除出队消息的统计
+         *
+         * @param entry 消息
+         */
+        private void remove(@NotNull Entry entry) {
+            bufferedBytes -= entry.length();
+            if (Objects.nonNull(entry.key)) {
+                keyedMap.remove(entry.key, entry);
+            }
+        }
+
+        /**
+         * 加入消息后是否溢出
+         *
+         * @param length 新消息的字节数
+         * @return 是否溢出
+         */
+        private boolean isOverflow(int length) {
+            return queue.size() >= webSocketConfig.getSendQueueCapacity()
+                    || bufferedBytes + length > webSocketConfig.getSendBufferSizeLimit();
+        }
+
+        /**
+         * 排队中的消息数
+         *
+         * @return 消息数
+         */
+        private synchronized int size() {
+            return queue.size();
+        }
+
+        /**
+         * 清空队列
+         */
+        private synchronized void clear() {
+            closed = true;
+            queue.clear();
+            keyedMap.clear();
+            bufferedBytes = 0;
+            if (Objects.nonNull(windowFuture)) {
+                windowFuture.cancel(false);
+                windowFuture = null;
+            }
+        }
+
+        /**
+         * 断开连接
+         */
+        private void closeSession() {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (Exception exception) {
+                log.error("关闭 WebSocket 失败", exception);
+            }
+        }
+    }
+}
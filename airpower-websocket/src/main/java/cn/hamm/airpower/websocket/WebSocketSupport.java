@@ -16,6 +16,16 @@ public enum WebSocketSupport {
      */
     MQTT,
 
+    /**
+     * Redis Stream
+     */
+    REDIS_STREAM,
+
+    /**
+     * 进程内，仅限单节点
+     */
+    LOCAL,
+
     /**
      * 不支持
      */
@@ -0,0 +1,51 @@
+package cn.hamm.airpower.websocket;
+
+import java.util.function.BiConsumer;
+
+/**
+ * <h1>WebSocket 消息传输</h1>
+ *
+ * @author Hamm.cn
+ * @apiNote 每个节点共享一个传输连接，频道在本节点首个会话订阅时订阅一次，最后一个会话取消时取消
+ */
+public interface WebSocketTransport {
+    /**
+     * 订阅频道
+     *
+     * @param channel  带前缀的真实频道
+     * @param listener 消息监听，参数为频道和消息体
+     */
+    void subscribe(String channel, BiConsumer<String, byte[]> listener);
+
+    /**
+     * 取消订阅频道
+     *
+     * @param channel 带前缀的真实频道
+     */
+    void unsubscribe(String channel);
+
+    /**
+     * 订阅通配频道
+     *
+     * @param pattern  带前缀的真实通配频道
+     * @param listener 消息监听，参数为消息实际的频道和消息体
+     * @apiNote 传输只负责把可能匹配的消息送到本节点，由本地路由的前缀树做精确匹配；
+     * 已经按频道订阅的消息不再回调通配监听，同一条消息只回调一次
+     */
+    void subscribePattern(String pattern, BiConsumer<String, byte[]> listener);
+
+    /**
+     * 取消订阅通配频道
+     *
+     * @param pattern 带前缀的真实通配频道
+     */
+    void unsubscribePattern(String pattern);
+
+    /**
+     * 发布消息
+     *
+     * @param channel 带前缀的真实频道
+     * @param message 消息
+     */
+    void publish(String channel, String message);
+}
@@ -0,0 +1,136 @@
+package cn.hamm.airpower.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * <h1>WebSocket 连接准入测试</h1>
+ *
+ * @author Hamm.cn
+ */
+class WebSocketAdmissionTest {
+    private final WebSocketConfig webSocketConfig = new WebSocketConfig();
+
+    private final WebSocketAdmission admission = new WebSocketAdmission();
+
+    WebSocketAdmissionTest() {
+        ReflectionTestUtils.setField(admission, "webSocketConfig", webSocketConfig);
+    }
+
+    @Test
+    void burstThenReject() {
+        webSocketConfig.setHandshakePermitsPerSecond(1);
+        webSocketConfig.setHandshakeBurst(3);
+        for (int i = 0; i < 3; i++) {
+            assertNull(admission.admit(newSession(), i));
+        }
+        CloseStatus status = admission.admit(newSession(), 3);
+        assertNotNull(status);
+        assertEquals(CloseStatus.SERVICE_OVERLOAD.getCode(), status.getCode());
+        assertTrue(status.getReason().startsWith("retryAfter="));
+        assertEquals(3, admission.getConnections());
+    }
+
+    @Test
+    void tokensRefillOverTime() throws Exception {
+        webSocketConfig.setHandshakePermitsPerSecond(20);
+        webSocketConfig.setHandshakeBurst(1);
+        assertNull(admission.admit(newSession(), 1));
+        assertNotNull(admission.admit(newSession(), 2));
+        Thread.sleep(100);
+        assertNull(admission.admit(newSession(), 3));
+    }
+
+    @Test
+    void burstDefaultsToPermitsPerSecond() {
+        webSocketConfig.setHandshakePermitsPerSecond(2);
+        assertNull(admission.admit(newSession(), 1));
+        assertNull(admission.admit(newSession(), 2));
+        assertNotNull(admission.admit(newSession(), 3));
+    }
+
+    @Test
+    void unlimitedWhenPermitsNotSet() {
+        for (int i = 0; i < 1000; i++) {
+            assertNull(admission.admit(newSession(), i));
+        }
+        assertEquals(1000, admission.getConnections());
+    }
+
+    @Test
+    void handshakeRejectedWithRetryAfter() {
+        webSocketConfig.setHandshakePermitsPerSecond(1);
+        webSocketConfig.setRetryAfterSecond(5);
+        Map<String, Object> attributes = new HashMap<>();
+        assertTrue(admission.beforeHandshake(mock(ServerHttpRequest.class), mock(ServerHttpResponse.class),
+                mock(org.springframework.web.socket.WebSocketHandler.class), attributes));
+
+        ServerHttpResponse response = mock(ServerHttpResponse.class);
+        HttpHeaders headers = new HttpHeaders();
+        when(response.getHeaders()).thenReturn(headers);
+        assertFalse(admission.beforeHandshake(mock(ServerHttpRequest.class), response,
+                mock(org.springframework.web.socket.WebSocketHandler.class), new HashMap<>()));
+        verify(response).setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        int retryAfter = Integer.parseInt(headers.getFirst(HttpHeaders.RETRY_AFTER));
+        assertTrue(retryAfter >= 5 && retryAfter <= 10);
+
+        // 握手时已取得令牌的连接不再消耗令牌
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getAttributes()).thenReturn(attributes);
+        assertNull(admission.admit(session, 1));
+    }
+
+    @Test
+    void maxConnectionsPerUser() {
+        webSocketConfig.setMaxConnectionsPerUser(2);
+        WebSocketSession first = newSession();
+        assertNull(admission.admit(first, 1));
+        assertNull(admission.admit(newSession(), 1));
+        CloseStatus status = admission.admit(newSession(), 1);
+        assertNotNull(status);
+        assertEquals(CloseStatus.POLICY_VIOLATION.getCode(), status.getCode());
+        assertNull(admission.admit(newSession(), 2));
+
+        admission.release(first);
+        assertNull(admission.admit(newSession(), 1));
+        assertEquals(3, admission.getConnections());
+    }
+
+    @Test
+    void maxConnections() {
+        webSocketConfig.setMaxConnections(2);
+        WebSocketSession first = newSession();
+        assertNull(admission.admit(first, 1));
+        assertNull(admission.admit(newSession(), 2));
+        assertNotNull(admission.admit(newSession(), 3));
+        assertEquals(2, admission.getConnections());
+
+        admission.release(first);
+        admission.release(first);
+        assertEquals(1, admission.getConnections());
+        assertNull(admission.admit(newSession(), 3));
+    }
+
+    /**
+     * 创建未经过握手拦截的会话
+     *
+     * @return 会话
+     */
+    private WebSocketSession newSession() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        return session;
+    }
+}
@@ -0,0 +1,99 @@
+package cn.hamm.airpower.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * <h1>WebSocket 异步发送测试</h1>
+ *
+ * @author Hamm.cn
+ */
+class WebSocketSenderTest {
+    private final WebSocketConfig webSocketConfig = new WebSocketConfig();
+
+    private final WebSocketSender sender = new WebSocketSender();
+
+    private final WebSocketSession session = mock(WebSocketSession.class);
+
+    WebSocketSenderTest() {
+        ReflectionTestUtils.setField(sender, "webSocketConfig", webSocketConfig);
+        when(session.getId()).thenReturn("session");
+        when(session.isOpen()).thenReturn(true);
+    }
+
+    @AfterEach
+    void destroy() {
+        sender.destroy();
+    }
+
+    @Test
+    void dropOldestWhenQueueIsFull() throws Exception {
+        webSocketConfig.setSendQueueCapacity(2);
+        TextMessage first = new TextMessage("first");
+        TextMessage second = new TextMessage("second");
+        TextMessage third = new TextMessage("third");
+        sender.hold(session);
+        sender.send(session, first);
+        sender.send(session, second);
+        sender.send(session, third);
+        assertEquals(2, sender.getQueueSize());
+        assertEquals(1, sender.getStatistics().get(0).getDropped());
+
+        sender.resume(session, List.of());
+        verify(session, timeout(1000)).sendMessage(third);
+        verify(session).sendMessage(second);
+        verify(session, never()).sendMessage(first);
+        verify(session, never()).close(any());
+    }
+
+    @Test
+    void dropOldestWhenBufferIsFull() {
+        webSocketConfig.setSendBufferSizeLimit(10);
+        sender.hold(session);
+        sender.send(session, new TextMessage("123456"));
+        sender.send(session, new TextMessage("abcdef"));
+        assertEquals(1, sender.getQueueSize());
+        assertEquals(1, sender.getStatistics().get(0).getDropped());
+    }
+
+    @Test
+    void oversizedMessageIsQueuedWhenQueueIsEmpty() {
+        webSocketConfig.setSendBufferSizeLimit(4);
+        sender.hold(session);
+        sender.send(session, new TextMessage("oversized"));
+        assertEquals(1, sender.getQueueSize());
+        assertEquals(0, sender.getStatistics().get(0).getDropped());
+    }
+
+    @Test
+    void disconnectWhenQueueIsFull() throws Exception {
+        webSocketConfig.setSendQueueCapacity(1);
+        webSocketConfig.setSendOverflowPolicy(WebSocketOverflowPolicy.DISCONNECT);
+        sender.hold(session);
+        sender.send(session, new TextMessage("first"));
+        sender.send(session, new TextMessage("second"));
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(0, sender.getQueueSize());
+
+        sender.send(session, new TextMessage("third"));
+        assertEquals(0, sender.getQueueSize());
+        verify(session, never()).sendMessage(any());
+    }
+
+    @Test
+    void closedSessionIsNotQueued() {
+        when(session.isOpen()).thenReturn(false);
+        sender.send(session, new TextMessage("message"));
+        assertEquals(0, sender.getQueueSize());
+        assertEquals(0, sender.getStatistics().size());
+    }
+}